@@ -0,0 +1,78 @@
+package com.craftinginterpreters.lox;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// ScanAccelerator on the incubating Vector API. Lox source is almost all ASCII, but a
+// Java char is 16 bits, so this loads chars into ShortVectors (8 lanes on SSE, 16 on
+// AVX2, 32 on AVX-512) and looks for the first lane that ends the run. What's left
+// at the end, shorter than a vector, goes to the plain loops.
+//
+// Kept out of src/ since it only compiles with the module:
+//   javac --add-modules jdk.incubator.vector -cp out -d out src-vector/*.java
+// and only loads when the JVM is started with --add-modules jdk.incubator.vector.
+// ScanAccelerator.get() falls back to the plain version otherwise.
+final class VectorScanAccelerator extends ScanAccelerator {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    @Override
+    int skipBlanks(char[] source, int from, int to) {
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            ShortVector chars = ShortVector.fromCharArray(SPECIES, source, i);
+            VectorMask<Short> blank = chars.eq((short)' ')
+                    .or(chars.eq((short)'\t'))
+                    .or(chars.eq((short)'\r'));
+            if (!blank.allTrue()) return i + blank.not().firstTrue();
+        }
+
+        return super.skipBlanks(source, i, to);
+    }
+
+    @Override
+    int lineEnd(char[] source, int from, int to) {
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            ShortVector chars = ShortVector.fromCharArray(SPECIES, source, i);
+            VectorMask<Short> end = chars.eq((short)'\n');
+            if (end.anyTrue()) return i + end.firstTrue();
+        }
+
+        return super.lineEnd(source, i, to);
+    }
+
+    @Override
+    int stringEnd(char[] source, int from, int to) {
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            ShortVector chars = ShortVector.fromCharArray(SPECIES, source, i);
+            VectorMask<Short> end = chars.eq((short)'"').or(chars.eq((short)'\n'));
+            if (end.anyTrue()) return i + end.firstTrue();
+        }
+
+        return super.stringEnd(source, i, to);
+    }
+
+    @Override
+    int identifierEnd(char[] source, int from, int to) {
+        int i = from;
+        for (; i + LANES <= to; i += LANES) {
+            ShortVector chars = ShortVector.fromCharArray(SPECIES, source, i);
+
+            // Setting 0x20 folds upper case onto lower case and sends nothing else
+            // into a-z. Subtracting the start of a range and comparing unsigned is
+            // both ends of it in one compare.
+            ShortVector lower = chars.or((short)0x20);
+            VectorMask<Short> letter = lower.sub((short)'a').compare(VectorOperators.UNSIGNED_LT, (short)26);
+            VectorMask<Short> digit = chars.sub((short)'0').compare(VectorOperators.UNSIGNED_LT, (short)10);
+            VectorMask<Short> identifier = letter.or(digit).or(chars.eq((short)'_'));
+
+            if (!identifier.allTrue()) return i + identifier.not().firstTrue();
+        }
+
+        return super.identifierEnd(source, i, to);
+    }
+}
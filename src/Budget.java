@@ -0,0 +1,139 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Limits on a run, for scripts we don't trust: statements executed, call depth, wall
+// time and bytes allocated. Going over one ends the run with a runtime error like
+// any other, the process carries on. Every limit is off (0) unless the embedder sets
+// it on the Isolate.
+//
+// Checks have to be cheap, they happen on every loop iteration and every call
+// (Interpreter.charge()). Statements are only counted there: each loop iteration
+// and each call is charged what its body runs outside of nested loops (the weight
+// the resolver puts on While and Function), which is close enough and leaves
+// straight line code alone. Each interpreter takes statements from the run in
+// batches (its credit) and only comes back here when a batch is used up. That's
+// also when the clock and the allocation counter are looked at, so every limit is
+// enforced to within a batch.
+//
+// Allocation is what the JVM counts for the interpreter's thread. It doesn't count
+// for virtual threads, so with an allocation limit set spawned tasks run on platform
+// threads instead (see Concurrency.spawn()).
+//
+// Blocking waits (sleep, channels, join, the event loop) don't run statements, so
+// they ask waitLimit() how long they may wait instead.
+final class Budget {
+    private static final long BATCH = 1024;
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    // 0 means no limit.
+    volatile long maxStatements = 0;
+    volatile int maxCallDepth = 0;
+    volatile long maxMillis = 0;
+    volatile long maxBytes = 0;
+
+    // The current run.
+    private final AtomicLong statements = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long deadline;
+
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean)threads;
+        return counting.isThreadAllocatedMemorySupported() ? counting : null;
+    }
+
+    // Starts a run on the isolate's own interpreter.
+    void start(Interpreter interpreter) {
+        statements.set(0);
+        bytes.set(0);
+        deadline = System.nanoTime() + maxMillis * 1_000_000;
+
+        interpreter.depth = 0;
+        join(interpreter);
+        interpreter.allocationMark = allocated();
+    }
+
+    // An interpreter taking part in the run, the main one or a spawned task's. A
+    // task's is made on the spawning thread, it reads its own counter on the first
+    // refill.
+    void join(Interpreter interpreter) {
+        interpreter.maxDepth = maxCallDepth > 0 ? maxCallDepth : Integer.MAX_VALUE;
+        interpreter.credit = 0;
+        interpreter.granted = 0;
+        interpreter.allocationMark = -1;
+    }
+
+    // Called when the interpreter's credit ran out. Throws if the run is over budget,
+    // otherwise hands out the next batch.
+    void refill(Interpreter interpreter, Token token) {
+        long used = interpreter.granted - interpreter.credit;
+
+        if (maxMillis > 0 && System.nanoTime() - deadline > 0) throw outOfTime(token);
+
+        if (maxBytes > 0) {
+            long now = allocated();
+            if (now >= 0 && interpreter.allocationMark >= 0) {
+                bytes.addAndGet(now - interpreter.allocationMark);
+            }
+            interpreter.allocationMark = now;
+
+            if (bytes.get() > maxBytes) {
+                throw new RuntimeError(token, "Allocation limit of " + maxBytes + " bytes exceeded.");
+            }
+        }
+
+        long batch = BATCH;
+        if (maxStatements > 0) {
+            long total = statements.addAndGet(used);
+            if (total > maxStatements) {
+                throw new RuntimeError(token, "Statement limit of " + maxStatements + " exceeded.");
+            }
+
+            batch = Math.min(batch, maxStatements - total);
+        } else if (maxMillis == 0 && maxBytes == 0) {
+            // Nothing to check, don't come back.
+            batch = Long.MAX_VALUE / 2;
+        }
+
+        interpreter.granted = batch;
+        interpreter.credit = batch;
+    }
+
+    // Nanoseconds until the time limit, Long.MAX_VALUE without one. For waits that
+    // don't run Lox code, so never get to refill(): the event loop's.
+    long timeLeft() {
+        if (maxMillis == 0) return Long.MAX_VALUE;
+        return deadline - System.nanoTime();
+    }
+
+    // How long a blocking wait may take, in nanoseconds. Throws if the time limit
+    // has already passed. Waits that time out come back here and get the error then.
+    long waitLimit() {
+        long left = timeLeft();
+        if (left <= 0) throw outOfTime(null);
+        return left;
+    }
+
+    boolean limitsAllocation() {
+        return maxBytes > 0;
+    }
+
+    RuntimeError outOfTime(Token token) {
+        String message = "Time limit of " + maxMillis + " ms exceeded.";
+        return token == null ? new RuntimeError(message) : new RuntimeError(token, message);
+    }
+
+    RuntimeError tooDeep(Token token) {
+        return new RuntimeError(token, "Call depth limit of " + maxCallDepth + " exceeded.");
+    }
+
+    private static long allocated() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+}
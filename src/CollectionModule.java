@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+// push(array, value), pop(array), map(), has(map, key), remove(map, key) and keys(map).
+class CollectionModule implements NativeModule {
+    @Override
+    public void install(Environment globals) {
+        globals.define("push", new NativeFunction.Binary("push") {
+            @Override
+            public Object call2(Interpreter interpreter, Object array, Object value) {
+                array(array).push(value);
+                return null;
+            }
+        });
+
+        globals.define("pop", new NativeFunction.Unary("pop") {
+            @Override
+            public Object call1(Interpreter interpreter, Object array) {
+                return array(array).pop();
+            }
+        });
+
+        globals.define("map", new NativeFunction.Nullary("map") {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return new LoxMap();
+            }
+        });
+
+        globals.define("has", new NativeFunction.Binary("has") {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                return map(map).has(null, key);
+            }
+        });
+
+        globals.define("remove", new NativeFunction.Binary("remove") {
+            @Override
+            public Object call2(Interpreter interpreter, Object map, Object key) {
+                return map(map).remove(null, key);
+            }
+        });
+
+        globals.define("keys", new NativeFunction.Unary("keys") {
+            @Override
+            public Object call1(Interpreter interpreter, Object map) {
+                return map(map).keys();
+            }
+        });
+    }
+}
@@ -0,0 +1,186 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+
+// Running Lox code on several threads, and the rule that keeps shared state safe.
+// The natives themselves (spawn, channels...) are in ConcurrencyModule.
+//
+// Every spawned function runs on its own virtual thread with its own Interpreter, so
+// the interpreter state (the current environment) is never shared. Lox values are:
+// environments and instances start out confined to one thread and take no locks.
+// Whenever a value escapes to another thread (it's spawned, sent over a channel,
+// returned from a task or stored into something that is already shared) it and
+// everything reachable from it is published: marked shared, after which every access
+// to it goes through its monitor. Code that never spawns never locks anything.
+final class Concurrency {
+    private Concurrency() {}
+
+    static LoxTask spawn(Interpreter parent, LoxCallable function) {
+        publish(function);
+
+        Interpreter interpreter = new Interpreter(parent);
+        Isolate isolate = parent.isolate;
+        EventLoop events = parent.events;
+
+        FutureTask<Object> future = new FutureTask<>(() -> {
+            try {
+                Object result = function.call0(interpreter);
+                publish(result);
+                return result;
+            } catch (RuntimeError error) {
+                // A task the isolate stopped (see Isolate.awaitTasks()) fails quietly.
+                if (!Thread.currentThread().isInterrupted()) isolate.runtimeError(error);
+                throw error;
+            } finally {
+                events.taskFinished();
+            }
+        });
+
+        LoxTask task = new LoxTask(future);
+        isolate.started(task);
+        events.taskStarted();
+
+        // The JVM doesn't count what virtual threads allocate, see Budget.
+        if (isolate.budget.limitsAllocation()) {
+            Thread.ofPlatform().daemon().name("lox-task").start(future);
+        } else {
+            Thread.ofVirtual().name("lox-task").start(future);
+        }
+        return task;
+    }
+
+    // Calls function(i) for every i in [start, end) on the common ForkJoinPool. The
+    // range is cut into a few chunks per core, each with its own Interpreter. Nothing
+    // is spawned in the Lox sense, the call returns when every chunk is done.
+    //
+    // The workers all see the function's closure, and locking every variable read
+    // would cost more than the parallelism brings. So the closure (and everything
+    // else a worker can reach through variables) is frozen instead, see freeze().
+    static void parallelFor(Interpreter parent, int start, int end, LoxCallable function) {
+        if (end <= start) return;
+
+        long count = (long)end - start;
+        int chunks = (int)Math.min(count, ForkJoinPool.getCommonPoolParallelism() * 4L);
+
+        List<Environment> frozen = freeze(function);
+        try {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int from = (int)(start + count * chunk / chunks);
+                int to = (int)(start + count * (chunk + 1) / chunks);
+                Interpreter interpreter = new Interpreter(parent);
+
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        for (int i = from; i < to; i++) function.call1(interpreter, (double)i);
+                    }
+                });
+            }
+
+            // The first chunk runs right here. Every chunk has to be done before we
+            // thaw, including the ones still running when another one failed.
+            for (int i = 1; i < tasks.size(); i++) tasks.get(i).fork();
+
+            // Errors count too: a chunk overflowing the stack doesn't stop the others.
+            Throwable failure = null;
+            for (RecursiveAction task : tasks) {
+                try {
+                    if (task == tasks.get(0)) {
+                        task.invoke();
+                    } else {
+                        task.join();
+                    }
+                } catch (Throwable error) {
+                    if (failure == null) failure = error;
+                }
+            }
+
+            // compute() can't throw checked exceptions, so it's one of these.
+            if (failure instanceof Error) throw (Error)failure;
+            if (failure != null) throw (RuntimeException)failure;
+        } finally {
+            for (Environment environment : frozen) environment.thaw();
+        }
+    }
+
+    // Gets what a function is about to run on several threads at once can reach ready
+    // for that. Environments are frozen: everyone reads them without locking, and
+    // assigning to a variable in one is an error until it's thawed. Everything else
+    // (arrays, maps, instances) is published, so it stays writable under its lock.
+    // Returns the frozen environments.
+    static List<Environment> freeze(Object root) {
+        List<Environment> frozen = new ArrayList<>();
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+        Deque<Object> pending = new ArrayDeque<>();
+        push(pending, root);
+
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+            if (!seen.add(next)) continue;
+
+            if (next instanceof Environment) {
+                Environment environment = (Environment)next;
+                environment.freeze();
+                frozen.add(environment);
+                environment.reachable(pending);
+            } else if (next instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction)next;
+                push(pending, function.closure);
+                push(pending, function.globals);
+            } else {
+                publish(next);
+            }
+        }
+
+        return frozen;
+    }
+
+    // Marks the value and everything reachable from it as shared between threads.
+    static void publish(Object value) {
+        if (!isPublishable(value)) return;
+
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(value);
+
+        while (!pending.isEmpty()) {
+            Object next = pending.pop();
+
+            if (next instanceof Environment) {
+                ((Environment)next).publish(pending);
+            } else if (next instanceof LoxFunction) {
+                push(pending, ((LoxFunction)next).closure);
+            } else if (next instanceof LoxInstance) {
+                ((LoxInstance)next).publish(pending);
+            } else if (next instanceof LoxClass) {
+                ((LoxClass)next).publish(pending);
+            } else if (next instanceof LoxArray) {
+                ((LoxArray)next).publish(pending);
+            } else if (next instanceof LoxMap) {
+                ((LoxMap)next).publish(pending);
+            } else if (next instanceof LoxModule) {
+                push(pending, ((LoxModule)next).globals);
+            }
+        }
+    }
+
+    static void push(Deque<Object> pending, Object value) {
+        if (isPublishable(value)) pending.push(value);
+    }
+
+    private static boolean isPublishable(Object value) {
+        return value instanceof Environment || value instanceof LoxFunction ||
+                value instanceof LoxInstance || value instanceof LoxClass || value instanceof LoxArray ||
+                value instanceof LoxMap || value instanceof LoxModule;
+    }
+}
@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+import java.time.Duration;
+
+// spawn(fn), join(task), channel(capacity), send(channel, value), receive(channel),
+// close(channel), sleep(seconds) and parallelFor(start, end, fn). See Concurrency for
+// how the threads share state.
+class ConcurrencyModule implements NativeModule {
+    @Override
+    public void install(Environment globals) {
+        globals.define("spawn", new NativeFunction.Unary("spawn") {
+            @Override
+            public Object call1(Interpreter interpreter, Object function) {
+                if (!(function instanceof LoxCallable)) {
+                    throw new RuntimeError("Can only spawn functions.");
+                }
+
+                LoxCallable callable = (LoxCallable)function;
+                if (callable.arity() > 0) {
+                    throw new RuntimeError("A spawned function can't take arguments.");
+                }
+
+                return Concurrency.spawn(interpreter, callable);
+            }
+        });
+
+        globals.define("join", new NativeFunction.Unary("join") {
+            @Override
+            public Object call1(Interpreter interpreter, Object task) {
+                return task(task).join(interpreter.isolate.budget);
+            }
+        });
+
+        globals.define("channel", new NativeFunction.Unary("channel") {
+            @Override
+            public Object call1(Interpreter interpreter, Object capacity) {
+                int size = integer(capacity);
+                if (size < 1) throw new RuntimeError("Channel capacity must be a positive integer.");
+
+                return new LoxChannel(size);
+            }
+        });
+
+        globals.define("send", new NativeFunction.Binary("send") {
+            @Override
+            public Object call2(Interpreter interpreter, Object channel, Object value) {
+                channel(channel).send(value, interpreter.isolate.budget);
+                return null;
+            }
+        });
+
+        globals.define("receive", new NativeFunction.Unary("receive") {
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                return channel(channel).receive(interpreter.isolate.budget);
+            }
+        });
+
+        globals.define("close", new NativeFunction.Unary("close") {
+            @Override
+            public Object call1(Interpreter interpreter, Object channel) {
+                channel(channel).close();
+                return null;
+            }
+        });
+
+        // fn(i) for every integer i from start up to (not including) end, in parallel.
+        // Variables fn can see are read-only until it's done.
+        globals.define("parallelFor", new NativeFunction.Ternary("parallelFor") {
+            @Override
+            public Object call3(Interpreter interpreter, Object start, Object end, Object function) {
+                Concurrency.parallelFor(interpreter, integer(start), integer(end), callback(function, 1));
+                return null;
+            }
+        });
+
+        // Blocks only the calling task. On a virtual thread this frees the carrier.
+        // Never sleeps past the run's time limit.
+        globals.define("sleep", new NativeFunction.Unary("sleep") {
+            @Override
+            public Object call1(Interpreter interpreter, Object seconds) {
+                Budget budget = interpreter.isolate.budget;
+                long nanos = (long)Math.max(0, number(seconds) * 1e9);
+                try {
+                    long left = budget.waitLimit();
+                    Thread.sleep(Duration.ofNanos(Math.min(nanos, left)));
+                    if (nanos > left) throw budget.outOfTime(null);
+                } catch (InterruptedException error) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeError("Interrupted while sleeping.");
+                }
+                return null;
+            }
+        });
+    }
+
+    private static LoxTask task(Object value) {
+        if (value instanceof LoxTask) return (LoxTask)value;
+        throw new RuntimeError("Expected a task.");
+    }
+
+    private static LoxChannel channel(Object value) {
+        if (value instanceof LoxChannel) return (LoxChannel)value;
+        throw new RuntimeError("Expected a channel.");
+    }
+}
@@ -0,0 +1,97 @@
+package com.craftinginterpreters.lox;
+
+// clock(), length(value), type(value), flush(), memoize(function), memoStats(function)
+class CoreModule implements NativeModule {
+    private static final LoxString HITS = LoxString.intern("hits");
+    private static final LoxString MISSES = LoxString.intern("misses");
+    private static final LoxString SIZE = LoxString.intern("size");
+
+    private static final LoxString NIL = LoxString.intern("nil");
+    private static final LoxString NUMBER = LoxString.intern("number");
+    private static final LoxString STRING = LoxString.intern("string");
+    private static final LoxString BOOLEAN = LoxString.intern("boolean");
+    private static final LoxString FUNCTION = LoxString.intern("function");
+    private static final LoxString CLASS = LoxString.intern("class");
+    private static final LoxString INSTANCE = LoxString.intern("instance");
+    private static final LoxString ARRAY = LoxString.intern("array");
+    private static final LoxString MAP = LoxString.intern("map");
+    private static final LoxString FILE = LoxString.intern("file");
+    private static final LoxString MODULE = LoxString.intern("module");
+    private static final LoxString OBJECT = LoxString.intern("object");
+
+    @Override
+    public void install(Environment globals) {
+        globals.define("clock", new NativeFunction.Nullary("clock") {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+        });
+
+        globals.define("length", new NativeFunction.Unary("length") {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (value instanceof LoxArray) return (double)((LoxArray)value).length();
+                if (value instanceof LoxString) return (double)((LoxString)value).length();
+                if (value instanceof LoxMap) return (double)((LoxMap)value).length();
+                throw new RuntimeError("Can only take the length of arrays, maps and strings.");
+            }
+        });
+
+        // Pushes buffered print output out now instead of when the buffer fills up.
+        globals.define("flush", new NativeFunction.Nullary("flush") {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                interpreter.isolate.out.flush();
+                return null;
+            }
+        });
+
+        // Caches the function's results by arguments even if the resolver couldn't
+        // prove it pure, see Memo. Returns the function.
+        globals.define("memoize", new NativeFunction.Unary("memoize") {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                function("memoize", value).memo().vouch();
+                return value;
+            }
+        });
+
+        // {"hits": n, "misses": n, "size": n} for the function's result cache.
+        globals.define("memoStats", new NativeFunction.Unary("memoStats") {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                Memo memo = function("memoStats", value).memo;
+
+                LoxMap stats = new LoxMap();
+                stats.set(null, HITS, memo == null ? 0.0 : (double)memo.hits());
+                stats.set(null, MISSES, memo == null ? 0.0 : (double)memo.misses());
+                stats.set(null, SIZE, memo == null ? 0.0 : (double)memo.size());
+                return stats;
+            }
+        });
+
+        globals.define("type", new NativeFunction.Unary("type") {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (value == null) return NIL;
+                if (value instanceof Double) return NUMBER;
+                if (value instanceof LoxString) return STRING;
+                if (value instanceof Boolean) return BOOLEAN;
+                if (value instanceof LoxClass || value instanceof JavaClass) return CLASS;
+                if (value instanceof LoxCallable) return FUNCTION;
+                if (value instanceof LoxInstance) return INSTANCE;
+                if (value instanceof LoxArray) return ARRAY;
+                if (value instanceof LoxMap) return MAP;
+                if (value instanceof LoxFileReader || value instanceof LoxFileWriter) return FILE;
+                if (value instanceof LoxModule) return MODULE;
+                return OBJECT;
+            }
+        });
+    }
+
+    private static LoxFunction function(String name, Object value) {
+        if (value instanceof LoxFunction && !((LoxFunction)value).isInitializer) return (LoxFunction)value;
+        throw new RuntimeError("Argument to '" + name + "' must be a Lox function.");
+    }
+}
@@ -1,24 +1,35 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
+    // Marks a name that isn't defined, since nil is a valid value.
+    static final Object UNDEFINED = new Object();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, Object> values;
 
-    Environment() {
-        enclosing = null;
-    }
+    // Environments start out confined to the thread that created them and are used
+    // without locking. Once one becomes reachable from another thread (a closure was
+    // spawned, or sent over a channel) it's marked shared and every access locks it.
+    boolean shared = false;
+
+    // Above 0 while parallelFor runs a function that can see this environment, see
+    // Concurrency.freeze(). The workers all read it without locking then, which is
+    // only safe because nobody may write to it until it thaws.
+    volatile int frozen = 0;
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        this.values = new HashMap<>();
+        if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.ENVIRONMENT);
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
+        Object value = lookup(name.lexeme);
+        if (value != UNDEFINED) return value;
 
         if (enclosing != null) return enclosing.get(name);
 
@@ -26,10 +37,7 @@ class Environment {
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+        if (replace(name.lexeme, value)) return;
 
         if (enclosing != null) {
             enclosing.assign(name, value);
@@ -40,7 +48,7 @@ class Environment {
     }
 
     void define(String name, Object value) {
-        values.put(name, value);
+        store(name, value);
     }
 
     Environment ancestor(int distance) {
@@ -53,10 +61,93 @@ class Environment {
     }
 
     Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+        Object value = ancestor(distance).lookup(name);
+        return value == UNDEFINED ? null : value;
     }
 
     void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+        Environment environment = ancestor(distance);
+        if (environment.frozen > 0) throw frozen(name.lexeme, name);
+        environment.store(name.lexeme, value);
+    }
+
+    static RuntimeError frozen(String name, Token token) {
+        String message = "Can't assign to '" + name + "' while parallelFor shares it between threads.";
+        return token == null ? new RuntimeError(message) : new RuntimeError(token, message);
+    }
+
+    void freeze() {
+        synchronized (this) {
+            frozen++;
+        }
+    }
+
+    void thaw() {
+        synchronized (this) {
+            frozen--;
+        }
+    }
+
+    // Marks this environment as shared and queues up everything it holds, since all
+    // of that is now reachable from another thread too. See Concurrency.publish().
+    void publish(Deque<Object> pending) {
+        if (shared) return;
+
+        synchronized (this) {
+            shared = true;
+            for (Object value : values.values()) Concurrency.push(pending, value);
+        }
+
+        Concurrency.push(pending, enclosing);
+    }
+
+    // Queues up what a function running here could reach, for Concurrency.freeze().
+    void reachable(Deque<Object> pending) {
+        synchronized (this) {
+            for (Object value : values.values()) Concurrency.push(pending, value);
+        }
+
+        Concurrency.push(pending, enclosing);
+    }
+
+    // The three accessors below are all GlobalEnvironment needs to override.
+
+    Object lookup(String name) {
+        if (!shared || frozen > 0) return values.getOrDefault(name, UNDEFINED);
+
+        synchronized (this) {
+            return values.getOrDefault(name, UNDEFINED);
+        }
+    }
+
+    void store(String name, Object value) {
+        if (!shared) {
+            if (frozen > 0) throw frozen(name, null);
+            values.put(name, value);
+            return;
+        }
+
+        Concurrency.publish(value);
+        synchronized (this) {
+            if (frozen > 0) throw frozen(name, null);
+            values.put(name, value);
+        }
+    }
+
+    boolean replace(String name, Object value) {
+        if (!shared) {
+            if (!values.containsKey(name)) return false;
+            if (frozen > 0) throw frozen(name, null);
+            values.put(name, value);
+            return true;
+        }
+
+        Concurrency.publish(value);
+        synchronized (this) {
+            if (!values.containsKey(name)) return false;
+            if (frozen > 0) throw frozen(name, null);
+            values.put(name, value);
+            return true;
+        }
     }
 }
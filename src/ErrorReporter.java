@@ -0,0 +1,57 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects compile errors (scanning, parsing and resolving) for one isolate.
+// These used to be static flags on Lox, which meant two scripts compiling at
+// the same time would trip each other's error state.
+class ErrorReporter {
+    private final PrintWriter err;
+    private final List<String> messages = new ArrayList<>();
+    private boolean hadError = false;
+
+    ErrorReporter(PrintWriter err) {
+        this.err = err;
+    }
+
+    // Only collects the messages, for callers that report them their own way.
+    ErrorReporter() {
+        this(null);
+    }
+
+    boolean hadError() {
+        return hadError;
+    }
+
+    // Every message reported so far, for embedders that surface errors
+    // as exceptions instead of reading the error stream.
+    List<String> messages() {
+        return messages;
+    }
+
+    void reset() {
+        hadError = false;
+        messages.clear();
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        String text = "[line " + line + "] Error" + where + ": " + message;
+        if (err != null) err.println(text);
+        messages.add(text);
+        hadError = true;
+    }
+}
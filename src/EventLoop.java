@@ -0,0 +1,220 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// The isolate's event loop. setTimeout() and the async natives don't wait for
+// anything: they leave a callback here and return. When the script's top level is
+// done, Interpreter.interpret() runs the loop, which calls the callbacks on the
+// interpreter's own thread as their events happen: timers when they're due, async
+// work when it completes. Callbacks can schedule more, and so can spawned tasks, so
+// the run is over once nothing is pending and no task is still running.
+//
+// The work behind an async native runs on a virtual thread, so it can block all it
+// wants, and any number of them can be in flight. It must not touch Lox values other
+// than strings and numbers, the only Lox code runs on the loop. So a script never
+// sees more than one thread (unless it spawns) and callbacks never overlap.
+final class EventLoop {
+    private static final class Timer implements Comparable<Timer> {
+        final double id;
+        final long due;
+        final LoxCallable callback;
+
+        Timer(double id, long due, LoxCallable callback) {
+            this.id = id;
+            this.due = due;
+            this.callback = callback;
+        }
+
+        // Ids go up, so timers due at the same time fire in the order they were set.
+        // nanoTime() values can wrap, only their difference means anything.
+        @Override
+        public int compareTo(Timer other) {
+            if (due != other.due) return Long.compare(due - other.due, 0);
+            return Double.compare(id, other.id);
+        }
+    }
+
+    // Async work that finished, waiting for its callback to run as callback(error, value).
+    private static final class Completion {
+        final int generation;
+        final LoxCallable callback;
+        final Object error;
+        final Object value;
+
+        Completion(int generation, LoxCallable callback, Object error, Object value) {
+            this.generation = generation;
+            this.callback = callback;
+            this.error = error;
+            this.value = value;
+        }
+    }
+
+    // Longer delays wait this long (about 146 years), so due times stay comparable.
+    private static final long MAX_DELAY = Long.MAX_VALUE / 2;
+
+    // Wakes the loop up when a timer is set from another thread while it waits.
+    private static final Completion WAKE = new Completion(-1, null, null, null);
+
+    // The thread in run(), null when the loop isn't running.
+    private volatile Thread running;
+
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final Map<Double, Timer> timersById = new HashMap<>();
+    private double nextId = 1;
+
+    private final BlockingQueue<Completion> completions = new LinkedBlockingQueue<>();
+    private int inFlight = 0;
+
+    // Spawned tasks still running. Not reset by clear(), they run on regardless.
+    private int tasks = 0;
+
+    // Goes up when a run fails and everything pending is dropped, so work that was
+    // still in flight then doesn't call back into the next run.
+    private int generation = 0;
+
+    // A callback set from a spawned task runs on the isolate's own thread, so it has
+    // to be published like anything else crossing threads, see Concurrency.
+    static LoxCallable handOver(Interpreter interpreter, LoxCallable callback) {
+        if (interpreter != interpreter.isolate.interpreter) Concurrency.publish(callback);
+        return callback;
+    }
+
+    // Returns the timer's id for clearTimeout().
+    synchronized double setTimeout(LoxCallable callback, double millis) {
+        long delay = (long)Math.min(Math.max(0, millis) * 1_000_000, MAX_DELAY);
+        long due = System.nanoTime() + delay;
+        Timer timer = new Timer(nextId++, due, callback);
+        timers.add(timer);
+        timersById.put(timer.id, timer);
+
+        // It might be waiting for something due later.
+        wake();
+        return timer.id;
+    }
+
+    // A spawned task can set timers and start async work until it's done, see
+    // Concurrency.spawn().
+    synchronized void taskStarted() {
+        tasks++;
+    }
+
+    synchronized void taskFinished() {
+        tasks--;
+        wake();
+    }
+
+    private void wake() {
+        Thread loop = running;
+        if (loop != null && loop != Thread.currentThread()) completions.add(WAKE);
+    }
+
+    // False if there's no such timer, or it already fired.
+    synchronized boolean clearTimeout(double id) {
+        Timer timer = timersById.remove(id);
+        if (timer == null) return false;
+
+        timers.remove(timer);
+        return true;
+    }
+
+    // Runs work on a virtual thread and callback(nil, result) on the loop when it's
+    // done. If the work throws a RuntimeError the callback gets its message instead,
+    // as callback(message, nil).
+    void submit(Callable<Object> work, LoxCallable callback) {
+        int started;
+        synchronized (this) {
+            inFlight++;
+            started = generation;
+        }
+
+        Thread.ofVirtual().name("lox-async").start(() -> {
+            Completion done;
+            try {
+                done = new Completion(started, callback, null, work.call());
+            } catch (RuntimeError error) {
+                done = new Completion(started, callback, LoxString.of(error.getMessage()), null);
+            } catch (Exception error) {
+                String message = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+                done = new Completion(started, callback, LoxString.of(message), null);
+            }
+
+            completions.add(done);
+        });
+    }
+
+    // Calls callbacks until nothing is pending. Runs on the interpreter's thread.
+    void run(Interpreter interpreter) {
+        running = Thread.currentThread();
+        try {
+            loop(interpreter);
+        } finally {
+            running = null;
+        }
+    }
+
+    private void loop(Interpreter interpreter) {
+        for (;;) {
+            Completion done = completions.poll();
+            if (done != null) {
+                complete(done, interpreter);
+                continue;
+            }
+
+            Timer timer;
+            long wait;
+            synchronized (this) {
+                timer = timers.peek();
+                if (timer == null && inFlight == 0 && tasks == 0) return;
+
+                wait = timer == null ? Long.MAX_VALUE : timer.due - System.nanoTime();
+                if (wait <= 0) {
+                    timers.poll();
+                    timersById.remove(timer.id);
+                }
+            }
+
+            if (wait <= 0) {
+                timer.callback.call0(interpreter);
+                continue;
+            }
+
+            // Waiting counts against the run's time limit too.
+            Budget budget = interpreter.isolate.budget;
+            long left = budget.timeLeft();
+            if (left <= 0) throw budget.outOfTime(null);
+
+            try {
+                done = completions.poll(Math.min(wait, left), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeError("Interrupted while waiting for events.");
+            }
+
+            if (done != null) complete(done, interpreter);
+        }
+    }
+
+    // Drops everything pending, after a run failed.
+    synchronized void clear() {
+        timers.clear();
+        timersById.clear();
+        completions.clear();
+        inFlight = 0;
+        generation++;
+    }
+
+    private void complete(Completion done, Interpreter interpreter) {
+        synchronized (this) {
+            if (done == WAKE || done.generation != generation) return;
+            inFlight--;
+        }
+
+        done.callback.call2(interpreter, done.error, done.value);
+    }
+}
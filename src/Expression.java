@@ -4,11 +4,14 @@ import java.util.List;
 
 abstract class Expression {
     interface Visitor<R> {
+        R visitArrayExpression(Array expression);
         R visitAssignExpression(Assign expression);
         R visitBinaryExpression(Binary expression);
         R visitCallExpression(Call expression);
         R visitGetExpression(Get expression);
         R visitGroupingExpression(Grouping expression);
+        R visitIndexExpression(Index expression);
+        R visitIndexSetExpression(IndexSet expression);
         R visitLiteralExpression(Literal expression);
         R visitLogicalExpression(Logical expression);
         R visitSetExpression(Set expression);
@@ -17,6 +20,20 @@ abstract class Expression {
         R visitUnaryExpression(Unary expression);
         R visitVariableExpression(Variable expression);
     }
+  static class Array extends Expression {
+    Array(Token bracket, List<Expression> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitArrayExpression(this);
+    }
+
+    final Token bracket;
+    final List<Expression> elements;
+  }
   static class Assign extends Expression {
     Assign(Token name, Expression value) {
       this.name = name;
@@ -30,6 +47,9 @@ abstract class Expression {
 
     final Token name;
     final Expression value;
+
+    int globalSlot = -1;
+    GlobalSymbols.Symbol global;
   }
   static class Binary extends Expression {
     Binary(Expression left, Token operator, Expression right) {
@@ -46,6 +66,8 @@ abstract class Expression {
     final Expression left;
     final Token operator;
     final Expression right;
+
+    boolean numeric;
   }
   static class Call extends Expression {
     Call(Expression callee, Token closingParenthesis, List<Expression> arguments) {
@@ -62,6 +84,9 @@ abstract class Expression {
     final Expression callee;
     final Token closingParenthesis;
     final List<Expression> arguments;
+
+    boolean arityVerified;
+    volatile Inline inline;
   }
   static class Get extends Expression {
     Get(Expression object, Token name) {
@@ -89,6 +114,40 @@ abstract class Expression {
 
     final Expression expression;
   }
+  static class Index extends Expression {
+    Index(Expression object, Token bracket, Expression index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitIndexExpression(this);
+    }
+
+    final Expression object;
+    final Token bracket;
+    final Expression index;
+  }
+  static class IndexSet extends Expression {
+    IndexSet(Expression object, Token bracket, Expression index, Expression value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitIndexSetExpression(this);
+    }
+
+    final Expression object;
+    final Token bracket;
+    final Expression index;
+    final Expression value;
+  }
   static class Literal extends Expression {
     Literal(Object value) {
       this.value = value;
@@ -172,6 +231,8 @@ abstract class Expression {
 
     final Token operator;
     final Expression right;
+
+    boolean numeric;
   }
   static class Variable extends Expression {
     Variable(Token name) {
@@ -184,6 +245,9 @@ abstract class Expression {
     }
 
     final Token name;
+
+    int globalSlot = -1;
+    GlobalSymbols.Symbol global;
   }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,246 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.Reference;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+
+// The global scope. Values live in arrays indexed by the slots from GlobalSymbols
+// and every global variable expression carries its slot, so using a global is an
+// array access instead of a couple of hash lookups. Lookups by name (declarations,
+// natives, the embedder) translate the name to its slot first.
+//
+// Slots are numbered for the whole process, and with many scripts compiled at once
+// there are a lot of them. Most belong to other scripts, so the cells come in pages of
+// PAGE_SIZE that are only allocated when one of their slots is written. An environment
+// pays for the pages its own globals are on (names get consecutive slots when a script
+// is compiled, so that's usually a few) plus one reference per page in between.
+//
+// Every defined cell keeps its GlobalSymbols.Symbol next to it in symbols, which is
+// what keeps the slot from being handed to another name while the value is here.
+class GlobalEnvironment extends Environment {
+    private static final int PAGE_BITS = 5;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final Object[][] NO_PAGES = new Object[0][];
+
+    private Object[][] pages = NO_PAGES;
+    private GlobalSymbols.Symbol[][] symbols = new GlobalSymbols.Symbol[0][];
+
+    // The embedder's map the globals are copied in from at the start of a run and
+    // written back to at the end, or null.
+    private final Map<String, Object> bindings;
+    // The module these are the globals of, null for the isolate's own. Runtime
+    // errors in code using them say which file they're in, see RuntimeError.locate().
+    final Path file;
+    // The cells right after load(), so save() only writes back what the run changed.
+    private Object[][] loaded = NO_PAGES;
+
+    // Goes up every time a global holding a function changes. Memo uses it to notice
+    // that what a pure function calls might not be pure anymore.
+    private volatile int functionVersion = 0;
+
+    GlobalEnvironment(Map<String, Object> bindings) {
+        this(bindings, null);
+    }
+
+    GlobalEnvironment(Map<String, Object> bindings, Path file) {
+        super((Environment)null);
+        this.bindings = bindings;
+        this.file = file;
+    }
+
+    Object get(int slot, Token name) {
+        Object value = read(slot);
+        if (value != UNDEFINED) return value;
+
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    void assign(int slot, Token name, Object value) {
+        if (frozen > 0) throw frozen(name.lexeme, name);
+        if (write(slot, value)) return;
+
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    // Java values in the bindings become Lox values here (numbers turn into doubles,
+    // other objects are wrapped). The embedder's map keeps its own values.
+    void load() {
+        if (bindings == null) return;
+
+        for (Map.Entry<String, Object> entry : bindings.entrySet()) {
+            store(entry.getKey(), JavaInterop.toLox(entry.getValue()));
+        }
+
+        synchronized (this) {
+            loaded = copy(pages);
+        }
+    }
+
+    // Writes back the globals the run defined or assigned, as Java values. Natives
+    // and whatever came in from the bindings untouched are left alone.
+    void save() {
+        if (bindings == null) return;
+
+        Object[][] values;
+        Object[][] before;
+        synchronized (this) {
+            values = copy(pages);
+            before = loaded;
+        }
+
+        for (int page = 0; page < values.length; page++) {
+            if (values[page] == null) continue;
+
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                Object value = values[page][i];
+                if (value == UNDEFINED) continue;
+
+                int slot = (page << PAGE_BITS) + i;
+                if (cell(before, slot) == value) continue;
+
+                bindings.put(GlobalSymbols.name(slot), JavaInterop.toJava(value));
+            }
+        }
+    }
+
+    private static Object[][] copy(Object[][] pages) {
+        Object[][] copy = pages.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i] != null) copy[i] = copy[i].clone();
+        }
+
+        return copy;
+    }
+
+    // UNDEFINED if the slot's page isn't there.
+    private static Object cell(Object[][] pages, int slot) {
+        int page = slot >>> PAGE_BITS;
+        if (page >= pages.length || pages[page] == null) return UNDEFINED;
+        return pages[page][slot & (PAGE_SIZE - 1)];
+    }
+
+    int functionVersion() {
+        return functionVersion;
+    }
+
+    // The fences keep the symbol, and so its slot, taken until the cell has been used.
+
+    @Override
+    Object lookup(String name) {
+        GlobalSymbols.Symbol symbol = GlobalSymbols.find(name);
+        if (symbol == null) return UNDEFINED;
+
+        Object value = read(symbol.slot);
+        Reference.reachabilityFence(symbol);
+        return value;
+    }
+
+    @Override
+    void store(String name, Object value) {
+        write(GlobalSymbols.symbol(name), value);
+    }
+
+    @Override
+    boolean replace(String name, Object value) {
+        GlobalSymbols.Symbol symbol = GlobalSymbols.find(name);
+        if (symbol == null) return false;
+
+        boolean replaced = write(symbol.slot, value);
+        Reference.reachabilityFence(symbol);
+        return replaced;
+    }
+
+    @Override
+    void reachable(Deque<Object> pending) {
+        synchronized (this) {
+            push(pending);
+        }
+    }
+
+    @Override
+    void publish(Deque<Object> pending) {
+        if (shared) return;
+
+        synchronized (this) {
+            shared = true;
+            push(pending);
+        }
+    }
+
+    private void push(Deque<Object> pending) {
+        for (Object[] page : pages) {
+            if (page == null) continue;
+
+            for (Object value : page) {
+                if (value != UNDEFINED) Concurrency.push(pending, value);
+            }
+        }
+    }
+
+    // UNDEFINED if there's no such global.
+    Object read(int slot) {
+        if (!shared || frozen > 0) return cell(pages, slot);
+
+        synchronized (this) {
+            return cell(pages, slot);
+        }
+    }
+
+    // Only writes a variable that's already defined.
+    private boolean write(int slot, Object value) {
+        if (!shared) {
+            if (frozen > 0) throw frozen(GlobalSymbols.name(slot), null);
+            return put(slot, null, value);
+        }
+
+        Concurrency.publish(value);
+        synchronized (this) {
+            if (frozen > 0) throw frozen(GlobalSymbols.name(slot), null);
+            return put(slot, null, value);
+        }
+    }
+
+    // Defines the variable, or overwrites it if it's already there.
+    private void write(GlobalSymbols.Symbol symbol, Object value) {
+        if (!shared) {
+            if (frozen > 0) throw frozen(symbol.name, null);
+            put(symbol.slot, symbol, value);
+            return;
+        }
+
+        Concurrency.publish(value);
+        synchronized (this) {
+            if (frozen > 0) throw frozen(symbol.name, null);
+            put(symbol.slot, symbol, value);
+        }
+    }
+
+    // With no symbol, only writes a variable that's already defined.
+    private boolean put(int slot, GlobalSymbols.Symbol symbol, Object value) {
+        int index = slot >>> PAGE_BITS;
+        Object[] page = index < pages.length ? pages[index] : null;
+        if (page == null) {
+            if (symbol == null) return false;
+
+            if (index >= pages.length) {
+                int length = Math.max(index + 1, pages.length * 2);
+                pages = Arrays.copyOf(pages, length);
+                symbols = Arrays.copyOf(symbols, length);
+            }
+            page = new Object[PAGE_SIZE];
+            Arrays.fill(page, UNDEFINED);
+            pages[index] = page;
+            symbols[index] = new GlobalSymbols.Symbol[PAGE_SIZE];
+        }
+
+        int offset = slot & (PAGE_SIZE - 1);
+        if (symbol == null && page[offset] == UNDEFINED) return false;
+        if (symbol != null) symbols[index][offset] = symbol;
+
+        if (page[offset] instanceof LoxCallable || value instanceof LoxCallable) functionVersion++;
+        page[offset] = value;
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Process-wide numbering of global variable names. The resolver stores the slot of
+// every global a program uses in the expression, and each GlobalEnvironment keeps its
+// values in an array indexed by slot. The numbering is the same for every isolate,
+// which is what lets a compiled Program run in any of them.
+//
+// A slot is handed out as a Symbol, and only stays taken while something holds the
+// Symbol: the expressions that use the name and the environments that define it. The
+// table itself only has weak references, so once every program using a name is
+// dropped and no environment defines it, the name goes away and its slot is given to
+// the next new name. A long-lived embedder compiling one-off scripts with their own
+// names keeps reusing the same few slots instead of numbering each of them.
+final class GlobalSymbols {
+    static final class Symbol {
+        final String name;
+        final int slot;
+
+        private Symbol(String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+    }
+
+    private static final class Entry extends WeakReference<Symbol> {
+        final String name;
+        final int slot;
+
+        Entry(Symbol symbol) {
+            super(symbol, collected);
+            this.name = symbol.name;
+            this.slot = symbol.slot;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry> slots = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> collected = new ReferenceQueue<>();
+    // Indexed by slot, null for free slots. Both of these are guarded by names.
+    private static final List<String> names = new ArrayList<>();
+    private static final BitSet free = new BitSet();
+
+    private GlobalSymbols() {}
+
+    // The symbol for the name, allocated the first time the name is seen (or the first
+    // time after the last one was dropped).
+    static Symbol symbol(String name) {
+        Symbol symbol = live(name);
+        if (symbol != null) return symbol;
+
+        synchronized (names) {
+            reclaim();
+
+            symbol = live(name);
+            if (symbol != null) return symbol;
+
+            // Lowest free slot first, so environments' page arrays stay short.
+            int slot = free.nextSetBit(0);
+            if (slot >= 0) {
+                free.clear(slot);
+                names.set(slot, name);
+            } else {
+                slot = names.size();
+                names.add(name);
+            }
+
+            symbol = new Symbol(name, slot);
+            slots.put(name, new Entry(symbol));
+            return symbol;
+        }
+    }
+
+    // null if nothing uses the name right now. The caller has to keep the symbol
+    // reachable for as long as it uses the slot.
+    static Symbol find(String name) {
+        return live(name);
+    }
+
+    // Only for slots whose Symbol is still held, which is every slot an environment
+    // has a value in.
+    static String name(int slot) {
+        synchronized (names) {
+            return names.get(slot);
+        }
+    }
+
+    // Slots in use.
+    static int count() {
+        synchronized (names) {
+            reclaim();
+            return names.size() - free.cardinality();
+        }
+    }
+
+    private static Symbol live(String name) {
+        Entry entry = slots.get(name);
+        return entry == null ? null : entry.get();
+    }
+
+    // Frees the slots of symbols the GC found unreachable. Caller holds the lock.
+    private static void reclaim() {
+        Entry entry;
+        while ((entry = (Entry)collected.poll()) != null) {
+            // The name might already be back under a new slot.
+            slots.remove(entry.name, entry);
+            names.set(entry.slot, null);
+            free.set(entry.slot);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// A call site's callee, for callees small enough to evaluate right at the call:
+// functions and methods whose whole body is "return <expression>;" using only the
+// parameters, "this", its properties, indexing, literals and operators. Getters, small math
+// helpers and predicates, mostly. Evaluating those in place skips everything a call
+// costs (bound method, environment, argument list, the Return exception).
+//
+// Each call site remembers the first callee it sees (Expression.Call.inline) and
+// only evaluates in place while a guard says it's still calling the same thing:
+// the same declaration for functions, so rebinding the variable turns it off, and
+// for methods the same class declarations from the receiver's class up to the one
+// declaring the method, and no field shadowing the method. When the guard fails the
+// call is made the normal way.
+//
+// The call site is part of the AST, which every isolate running the Program shares,
+// so the guard only holds on to declarations, never runtime classes or functions.
+// Those would keep an isolate alive and never match in any other.
+//
+// Inlined bodies can't call anything, so they can't recurse.
+final class Inline {
+    private static final int MAX_NODES = 16;
+
+    // Call sites whose callee can't be inlined.
+    static final Inline NEVER = new Inline(null, null, null, null);
+
+    final Statement.Function declaration;
+    // The module the declaration is in, for runtime errors. A Program is always the
+    // same file, so this is the same in every isolate.
+    private final Path file;
+    // For method calls, the declarations of the receiver's class and its superclasses
+    // up to the one declaring the method. Null for functions.
+    private final Statement.Class[] classes;
+    private final Node body;
+
+    private Inline(Statement.Function declaration, Path file, Statement.Class[] classes, Node body) {
+        this.declaration = declaration;
+        this.file = file;
+        this.classes = classes;
+        this.body = body;
+    }
+
+    // NEVER if the function can't be inlined. Its body has to be parsed already.
+    static Inline function(LoxFunction function, int argumentCount) {
+        return of(function, null, argumentCount);
+    }
+
+    static Inline method(LoxClass klass, LoxFunction method, int argumentCount) {
+        List<Statement.Class> classes = new ArrayList<>();
+        for (LoxClass owner = klass; owner != null; owner = owner.superclass) {
+            classes.add(owner.declaration);
+            if (owner.declares(method.declaration.name.lexeme)) break;
+        }
+
+        return of(method, classes.toArray(new Statement.Class[0]), argumentCount);
+    }
+
+    private static Inline of(LoxFunction function, Statement.Class[] classes, int argumentCount) {
+        Statement.Function declaration = function.declaration;
+        if (function.isInitializer || declaration.params.size() != argumentCount) return NEVER;
+
+        List<Statement> body = function.compiledBody();
+        if (body == null || body.size() != 1 || !(body.get(0) instanceof Statement.Return)) return NEVER;
+
+        Statement.Return ret = (Statement.Return)body.get(0);
+        if (ret.value == null) return NEVER;
+
+        Builder builder = new Builder(declaration.params, classes != null);
+        Node node = builder.build(ret.value);
+        if (node == null || builder.nodes > MAX_NODES) return NEVER;
+
+        return new Inline(declaration, function.globals.file, classes, node);
+    }
+
+    boolean matches(LoxFunction function) {
+        return classes == null && function.declaration == declaration;
+    }
+
+    boolean matches(LoxInstance instance) {
+        if (classes == null) return false;
+
+        LoxClass klass = instance.klass();
+        for (Statement.Class expected : classes) {
+            if (klass == null || klass.declaration != expected) return false;
+            klass = klass.superclass;
+        }
+
+        return !instance.hasField(declaration.name.lexeme);
+    }
+
+    Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+        try {
+            return body.evaluate(interpreter, receiver, arguments);
+        } catch (RuntimeError error) {
+            // Like a call would.
+            throw error.locate(file);
+        }
+    }
+
+    private abstract static class Node {
+        abstract Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments);
+    }
+
+    private static final class Constant extends Node {
+        final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            return value;
+        }
+    }
+
+    private static final class Parameter extends Node {
+        final int index;
+
+        Parameter(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            return arguments[index];
+        }
+    }
+
+    private static final class Receiver extends Node {
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            return receiver;
+        }
+    }
+
+    private static final class Property extends Node {
+        final Expression.Get expr;
+        final Node object;
+
+        Property(Expression.Get expr, Node object) {
+            this.expr = expr;
+            this.object = object;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            return interpreter.get(expr, object.evaluate(interpreter, receiver, arguments));
+        }
+    }
+
+    private static final class Element extends Node {
+        final Expression.Index expr;
+        final Node object;
+        final Node index;
+
+        Element(Expression.Index expr, Node object, Node index) {
+            this.expr = expr;
+            this.object = object;
+            this.index = index;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            Object value = object.evaluate(interpreter, receiver, arguments);
+            return interpreter.index(expr, value, index.evaluate(interpreter, receiver, arguments));
+        }
+    }
+
+    private static final class Binary extends Node {
+        final Token operator;
+        final Node left;
+        final Node right;
+
+        Binary(Token operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            Object a = left.evaluate(interpreter, receiver, arguments);
+            return interpreter.binary(operator, a, right.evaluate(interpreter, receiver, arguments));
+        }
+    }
+
+    private static final class Unary extends Node {
+        final Token operator;
+        final Node right;
+
+        Unary(Token operator, Node right) {
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            Object value = right.evaluate(interpreter, receiver, arguments);
+            if (operator.type == TokenType.BANG) return !Interpreter.isTruthy(value);
+            return interpreter.negate(operator, value);
+        }
+    }
+
+    private static final class Logical extends Node {
+        final boolean or;
+        final Node left;
+        final Node right;
+
+        Logical(boolean or, Node left, Node right) {
+            this.or = or;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter, Object receiver, Object[] arguments) {
+            Object value = left.evaluate(interpreter, receiver, arguments);
+            if (Interpreter.isTruthy(value) == or) return value;
+            return right.evaluate(interpreter, receiver, arguments);
+        }
+    }
+
+    // Turns the returned expression into nodes. Anything we don't handle (calls,
+    // assignments, globals, variables of an enclosing function) gives null.
+    private static final class Builder implements Expression.Visitor<Node> {
+        private final List<Token> params;
+        private final boolean method;
+        int nodes = 0;
+
+        Builder(List<Token> params, boolean method) {
+            this.params = params;
+            this.method = method;
+        }
+
+        Node build(Expression expression) {
+            nodes++;
+            return expression.accept(this);
+        }
+
+        @Override
+        public Node visitBinaryExpression(Expression.Binary expr) {
+            Node left = build(expr.left);
+            Node right = build(expr.right);
+            return left == null || right == null ? null : new Binary(expr.operator, left, right);
+        }
+
+        @Override
+        public Node visitGetExpression(Expression.Get expr) {
+            Node object = build(expr.object);
+            return object == null ? null : new Property(expr, object);
+        }
+
+        @Override
+        public Node visitGroupingExpression(Expression.Grouping expr) {
+            return build(expr.expression);
+        }
+
+        @Override
+        public Node visitLiteralExpression(Expression.Literal expr) {
+            return new Constant(expr.value);
+        }
+
+        @Override
+        public Node visitLogicalExpression(Expression.Logical expr) {
+            Node left = build(expr.left);
+            Node right = build(expr.right);
+            if (left == null || right == null) return null;
+            return new Logical(expr.operator.type == TokenType.OR, left, right);
+        }
+
+        @Override
+        public Node visitThisExpression(Expression.This expr) {
+            return method ? new Receiver() : null;
+        }
+
+        @Override
+        public Node visitUnaryExpression(Expression.Unary expr) {
+            Node right = build(expr.right);
+            return right == null ? null : new Unary(expr.operator, right);
+        }
+
+        @Override
+        public Node visitVariableExpression(Expression.Variable expr) {
+            // A return statement declares nothing, so a local here is a parameter.
+            if (expr.globalSlot >= 0) return null;
+
+            for (int i = params.size() - 1; i >= 0; i--) {
+                if (params.get(i).lexeme.equals(expr.name.lexeme)) return new Parameter(i);
+            }
+
+            return null;
+        }
+
+        @Override
+        public Node visitArrayExpression(Expression.Array expr) {
+            return null;
+        }
+
+        @Override
+        public Node visitAssignExpression(Expression.Assign expr) {
+            return null;
+        }
+
+        @Override
+        public Node visitCallExpression(Expression.Call expr) {
+            return null;
+        }
+
+        @Override
+        public Node visitIndexExpression(Expression.Index expr) {
+            Node object = build(expr.object);
+            Node index = build(expr.index);
+            return object == null || index == null ? null : new Element(expr, object, index);
+        }
+
+        @Override
+        public Node visitIndexSetExpression(Expression.IndexSet expr) {
+            return null;
+        }
+
+        @Override
+        public Node visitSetExpression(Expression.Set expr) {
+            return null;
+        }
+
+        @Override
+        public Node visitSuperExpression(Expression.Super expr) {
+            return null;
+        }
+    }
+}
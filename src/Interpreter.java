@@ -1,30 +1,81 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void> {
 
-    // stores variables and lets you do stuff like variable declaration
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expression, Integer> locals = new HashMap<>();
-
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() { return 0; }
-
-            @Override
-            public Object call(Interpreter Interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+    final Isolate isolate;
 
-            @Override
-            public String toString() { return "<native fn>"; }
-        });
+    // stores variables and lets you do stuff like variable declaration
+    // While a function from an imported module runs these are the module's globals,
+    // see LoxFunction.execute().
+    GlobalEnvironment globals;
+    private Environment environment;
+
+    // Resolver side table. The first program run here is adopted as is so running a
+    // compiled Program in a fresh isolate doesn't copy it. It's copied before we merge
+    // in any other program, since the adopted map is shared with the Program.
+    private Map<Expression, Integer> locals = new HashMap<>();
+    private boolean sharedLocals = false;
+
+    // Lazily parsed bodies whose side table entries are already in locals.
+    private final Set<LazyBody> lazyResolved;
+
+    // Callbacks waiting for timers and async work. Shared with spawned tasks' interpreters.
+    final EventLoop events;
+
+    // Our share of the run's Budget: statements we may run before asking it again
+    // (out of the granted batch), our thread's allocation counter when we last
+    // asked, and how deep in calls we are.
+    long credit = 0;
+    long granted = 0;
+    long allocationMark = -1;
+    int depth = 0;
+    int maxDepth = Integer.MAX_VALUE;
+
+    Interpreter(Isolate isolate, GlobalEnvironment globals) {
+        this.isolate = isolate;
+        this.globals = globals;
+        this.environment = globals;
+        this.lazyResolved = new HashSet<>();
+        this.events = new EventLoop();
+
+        // File access comes later, if the embedder allows it.
+        NativeModule.installAll(globals, false);
+    }
+
+    // Interpreter for another thread running code of the same isolate. It shares the
+    // globals and the resolver side table but has its own current environment.
+    Interpreter(Interpreter parent) {
+        this.isolate = parent.isolate;
+        this.globals = parent.globals;
+        this.environment = globals;
+
+        // Neither of us may write into the side table from now on, merges copy it first.
+        parent.sharedLocals = true;
+        this.locals = parent.locals;
+        this.sharedLocals = true;
+        this.lazyResolved = new HashSet<>(parent.lazyResolved);
+        this.events = parent.events;
+        isolate.budget.join(this);
+    }
+
+    // At loop back edges and calls. Cheap unless our batch of statements ran out.
+    void charge(int statements, Token token) {
+        credit -= statements;
+        if (credit < 0) isolate.budget.refill(this, token);
+    }
+
+    // A call starts. The caller decrements depth when it's over, in a finally block.
+    void enter(Statement.Function function) {
+        if (++depth > maxDepth) throw isolate.budget.tooDeep(function.name);
+        charge(function.weight, function.name);
     }
 
     @Override
@@ -55,13 +106,29 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
     @Override
     public Object visitSetExpression(Expression.Set expr) {
         Object object = evaluate(expr.object);
+        checkFields(expr, object);
+
+        return set(expr, object, evaluate(expr.value));
+    }
 
-        if (!(object instanceof LoxInstance)) {
-            throw new RuntimeError(expr.name, "Only instances have fields.");
+    // The object is checked before the value is evaluated.
+    void checkFields(Expression.Set expr, Object object) {
+        if (object instanceof JavaObject || object instanceof JavaClass || object instanceof LoxInstance) {
+            return;
+        }
+
+        throw new RuntimeError(expr.name, "Only instances have fields.");
+    }
+
+    Object set(Expression.Set expr, Object object, Object value) {
+        if (object instanceof JavaObject) {
+            ((JavaObject)object).set(expr.name, value);
+        } else if (object instanceof JavaClass) {
+            ((JavaClass)object).set(expr.name, value);
+        } else {
+            ((LoxInstance)object).set(expr.name, value);
         }
 
-        Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
         return value;
     }
 
@@ -73,6 +140,7 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
         LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
 
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        if (MemoryStats.enabled) MemoryStats.at(expr.method.line);
 
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
@@ -88,22 +156,30 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
 
     @Override
     public Object visitUnaryExpression(Expression.Unary expr) {
+        if (expr.numeric) return number(expr.operator, -evaluateNumber(expr.right));
+
         Object right = evaluate(expr.right);
 
         switch (expr.operator.type) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return negate(expr.operator, right);
         }
 
         // unreachable
         return null;
     }
 
+    Object negate(Token operator, Object right) {
+        checkNumberOperand(operator, right);
+        return number(operator, -(double)right);
+    }
+
     @Override
     public Object visitVariableExpression(Expression.Variable expr) {
+        // Globals have a slot and aren't in the side table.
+        if (expr.globalSlot >= 0) return globals.get(expr.globalSlot, expr.name);
         return lookUpVariable(expr.name, expr);
     }
 
@@ -116,15 +192,59 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
         }
     }
 
+    @Override
+    public Object visitArrayExpression(Expression.Array expr) {
+        LoxArray array = new LoxArray(expr.elements.size());
+        for (Expression element : expr.elements) {
+            array.push(evaluate(element));
+        }
+
+        return array;
+    }
+
+    @Override
+    public Object visitIndexExpression(Expression.Index expr) {
+        Object object = evaluate(expr.object);
+        return index(expr, object, evaluate(expr.index));
+    }
+
+    Object index(Expression.Index expr, Object object, Object index) {
+        if (object instanceof LoxArray) {
+            return ((LoxArray)object).get(expr.bracket, index);
+        } else if (object instanceof LoxMap) {
+            return ((LoxMap)object).get(expr.bracket, index);
+        }
+
+        throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed.");
+    }
+
+    @Override
+    public Object visitIndexSetExpression(Expression.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return indexSet(expr, object, index, evaluate(expr.value));
+    }
+
+    Object indexSet(Expression.IndexSet expr, Object object, Object index, Object value) {
+        if (object instanceof LoxArray) {
+            ((LoxArray)object).set(expr.bracket, index, value);
+            return value;
+        } else if (object instanceof LoxMap) {
+            ((LoxMap)object).set(expr.bracket, index, value);
+            return value;
+        }
+
+        throw new RuntimeError(expr.bracket, "Only arrays and maps can be indexed.");
+    }
+
     @Override
     public Object visitAssignExpression(Expression.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.globalSlot >= 0) {
+            globals.assign(expr.globalSlot, expr.name, value);
         } else {
-            globals.assign(expr.name, value);
+            environment.assignAt(locals.get(expr), expr.name, value);
         }
 
         return value;
@@ -141,23 +261,44 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    private static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    // Arrays and maps this thread is in the middle of printing. One that shows up
+    // inside itself prints as [...] or {...} instead of recursing until the stack runs out.
+    private static final ThreadLocal<Set<Object>> printing = new ThreadLocal<Set<Object>>() {
+        @Override
+        protected Set<Object> initialValue() {
+            return Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        }
+    };
+
+    static Set<Object> printing() {
+        return printing.get();
+    }
+
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
+            // Integral numbers print without the ".0". Double.toString() switches to
+            // exponent notation at 1e7, those (and -0) keep going through it.
+            double number = (double)object;
+            long integral = (long)number;
+            if (integral == number && integral != 0 && Math.abs(number) < 1e7) {
+                return Long.toString(integral);
+            }
+
             String text = object.toString();
             if (text.endsWith(".0")) {
                 text = text.substring(0, text.length() - 2);
@@ -178,12 +319,73 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
         return expr.accept(this);
     }
 
+    // For expressions TypeInference proved to be numbers. Arithmetic it proved only
+    // ever sees numbers is done right here on doubles, so a whole expression like
+    // "a * b + c" boxes once at the end instead of once per operator.
+    private double evaluateNumber(Expression expr) {
+        if (expr instanceof Expression.Binary) {
+            Expression.Binary binary = (Expression.Binary)expr;
+            if (binary.numeric) {
+                double left = evaluateNumber(binary.left);
+                double right = evaluateNumber(binary.right);
+
+                switch (binary.operator.type) {
+                    case MINUS: return left - right;
+                    case PLUS: return left + right;
+                    case SLASH: return left / right;
+                    case STAR: return left * right;
+                }
+            }
+        } else if (expr instanceof Expression.Unary) {
+            Expression.Unary unary = (Expression.Unary)expr;
+            if (unary.numeric) return -evaluateNumber(unary.right);
+        } else if (expr instanceof Expression.Grouping) {
+            return evaluateNumber(((Expression.Grouping)expr).expression);
+        } else if (expr instanceof Expression.Literal) {
+            return (double)((Expression.Literal)expr).value;
+        }
+
+        return (double)evaluate(expr);
+    }
+
+    // Conditions of ifs and loops. Comparisons of proven numbers skip the Boolean.
+    private boolean isTrue(Expression condition) {
+        if (condition instanceof Expression.Binary && ((Expression.Binary)condition).numeric) {
+            Expression.Binary binary = (Expression.Binary)condition;
+            switch (binary.operator.type) {
+                case GREATER: return evaluateNumber(binary.left) > evaluateNumber(binary.right);
+                case GREATER_EQUAL: return evaluateNumber(binary.left) >= evaluateNumber(binary.right);
+                case LESS: return evaluateNumber(binary.left) < evaluateNumber(binary.right);
+                case LESS_EQUAL: return evaluateNumber(binary.left) <= evaluateNumber(binary.right);
+            }
+        }
+
+        return isTruthy(evaluate(condition));
+    }
+
     private void execute(Statement stmt) {
         stmt.accept(this);
     }
 
-    void resolve(Expression expr, int depth) {
-        locals.put(expr, depth);
+    void resolve(Map<Expression, Integer> resolved) {
+        if (locals == resolved) return;
+
+        if (locals.isEmpty()) {
+            locals = resolved;
+            sharedLocals = true;
+            return;
+        }
+
+        if (sharedLocals) {
+            locals = new HashMap<>(locals);
+            sharedLocals = false;
+        }
+
+        locals.putAll(resolved);
+    }
+
+    void resolve(LazyBody lazy) {
+        if (lazyResolved.add(lazy)) resolve(lazy.locals());
     }
 
     void executeBlock(List<Statement> statements, Environment environment) {
@@ -213,6 +415,7 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
     @Override
     public Void visitClassStatement(Statement.Class stmt) {
         Object superclass = null;
+        if (MemoryStats.enabled) MemoryStats.at(stmt.name.line);
 
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -234,11 +437,12 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Statement.Function method : stmt.methods) {
             boolean isInitializer = method.name.lexeme.equals("init");
-            LoxFunction function = new LoxFunction(method, environment, isInitializer);
+            LoxFunction function = new LoxFunction(method, environment, globals, isInitializer);
+            if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.CLOSURE);
             methods.put(method.name.lexeme, function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass)superclass, methods);
+        LoxClass klass = new LoxClass(stmt, (LoxClass)superclass, methods);
 
         if (superclass != null) {
             environment = environment.enclosing;
@@ -256,14 +460,18 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
 
     @Override
     public Void visitFunctionStatement(Statement.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
+        LoxFunction function = new LoxFunction(stmt, environment, globals, false);
+        if (MemoryStats.enabled) {
+            MemoryStats.at(stmt.name.line);
+            MemoryStats.record(MemoryStats.Kind.CLOSURE);
+        }
         environment.define(stmt.name.lexeme, function);
         return null;
     }
 
     @Override
     public Void visitIfStatement(Statement.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
+        if (isTrue(stmt.condition)) {
             execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
             execute(stmt.elseBranch);
@@ -271,10 +479,34 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
         return null;
     }
 
+    @Override
+    public Void visitImportStatement(Statement.Import stmt) {
+        environment.define(stmt.name.lexeme, isolate.importModule(stmt, this));
+        return null;
+    }
+
+    // Runs a module's top level with its own globals.
+    void runModule(Program program, GlobalEnvironment moduleGlobals) {
+        resolve(program.locals);
+
+        GlobalEnvironment previousGlobals = globals;
+        Environment previous = environment;
+        try {
+            globals = moduleGlobals;
+            environment = moduleGlobals;
+            execute(program.statements);
+        } catch (RuntimeError error) {
+            throw error.locate(moduleGlobals.file);
+        } finally {
+            globals = previousGlobals;
+            environment = previous;
+        }
+    }
+
     @Override
     public Void visitPrintStatement(Statement.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        isolate.out.println(value);
         return null;
     }
 
@@ -299,8 +531,9 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
 
     @Override
     public Void visitWhileStatement(Statement.While stmt) {
-        while (isTruthy(evaluate(stmt.condition))) {
+        while (isTrue(stmt.condition)) {
             execute(stmt.body);
+            charge(stmt.weight, stmt.keyword);
         }
 
         return null;
@@ -308,77 +541,239 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
 
     @Override
     public Object visitBinaryExpression(Expression.Binary expr) {
+        if (expr.numeric) {
+            double left = evaluateNumber(expr.left);
+            return numeric(expr.operator, left, evaluateNumber(expr.right));
+        }
+
         Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        return binary(expr.operator, left, evaluate(expr.right));
+    }
 
-        switch (expr.operator.type) {
+    Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case BANG_EQUAL: return !isEqual(left, right);
             case EQUAL_EQUAL: return isEqual(left, right);
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left <= (double)right;
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
+                checkNumberOperands(operator, left, right);
+                return number(operator, (double)left - (double)right);
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
-                    return (double)left + (double)right;
+                    return number(operator, (double)left + (double)right);
                 }
 
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                if (left instanceof LoxString && right instanceof LoxString) {
+                    return LoxString.concat((LoxString)left, (LoxString)right);
                 }
 
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or strings.");
+                throw new RuntimeError(operator, "Operands must be two numbers or strings.");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
+                checkNumberOperands(operator, left, right);
+                return number(operator, (double)left / (double)right);
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
+                checkNumberOperands(operator, left, right);
+                return number(operator, (double)left * (double)right);
         }
 
         // unreachable
         return null;
     }
 
+    // A binary expression TypeInference proved only sees numbers: no checks, and the
+    // operands aren't boxed.
+    Object numeric(Token operator, double left, double right) {
+        switch (operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case MINUS: return number(operator, left - right);
+            case PLUS: return number(operator, left + right);
+            case SLASH: return number(operator, left / right);
+            case STAR: return number(operator, left * right);
+        }
+
+        // unreachable
+        return null;
+    }
+
+    // Arithmetic results get boxed on the way out. This is only here so --memstats sees it.
+    private Object number(Token operator, double value) {
+        if (MemoryStats.enabled) {
+            MemoryStats.at(operator.line);
+            MemoryStats.record(MemoryStats.Kind.BOXED_NUMBER);
+        }
+
+        return value;
+    }
+
+    // Arguments are evaluated into locals and handed to the fixed arity entry points,
+    // so the common calls don't build an argument list.
     @Override
     public Object visitCallExpression(Expression.Call expr) {
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        Inline inline = expr.inline;
+
+        // Small callees are evaluated right here while the guard holds, see Inline.
+        // Method calls don't bind the method for that.
+        if (inline != Inline.NEVER && expr.callee instanceof Expression.Get) {
+            Expression.Get get = (Expression.Get)expr.callee;
+            Object object = evaluate(get.object);
+
+            if (object instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance)object;
+                if (inline == null) inline = inlineMethod(expr, instance, get.name);
+                if (inline != null && inline.matches(instance)) {
+                    return inline.evaluate(this, instance, arguments(expr));
+                }
+            }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expression argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+            callee = get(get, object);
+        } else {
+            callee = evaluate(expr.callee);
+
+            if (inline != Inline.NEVER && callee instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction)callee;
+                if (inline == null) inline = inlineFunction(expr, function);
+                if (inline != null && inline.matches(function)) {
+                    return inline.evaluate(this, null, arguments(expr));
+                }
+            }
         }
 
+        List<Expression> arguments = expr.arguments;
+
+        try {
+            switch (arguments.size()) {
+                case 0:
+                    return callable(expr, callee, 0).call0(this);
+                case 1: {
+                    Object a = evaluate(arguments.get(0));
+                    return callable(expr, callee, 1).call1(this, a);
+                }
+                case 2: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    return callable(expr, callee, 2).call2(this, a, b);
+                }
+                case 3: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    Object c = evaluate(arguments.get(2));
+                    return callable(expr, callee, 3).call3(this, a, b, c);
+                }
+                default: {
+                    if (MemoryStats.enabled) {
+                        MemoryStats.at(expr.closingParenthesis.line);
+                        MemoryStats.record(MemoryStats.Kind.ARGUMENTS, MemoryStats.arrayBytes(arguments.size()));
+                    }
+
+                    Object[] values = new Object[arguments.size()];
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = evaluate(arguments.get(i));
+                    }
+                    return callable(expr, callee, values.length).call(this, values);
+                }
+            }
+        } catch (RuntimeError error) {
+            // errors from natives don't know their call site
+            if (error.token == null) throw new RuntimeError(expr.closingParenthesis, error.getMessage());
+            throw error;
+        }
+    }
+
+    private Object[] arguments(Expression.Call expr) {
+        Object[] values = new Object[expr.arguments.size()];
+        for (int i = 0; i < values.length; i++) values[i] = evaluate(expr.arguments.get(i));
+        return values;
+    }
+
+    // The first callee a call site sees decides what it inlines. Null means not
+    // decided yet: the body is lazy and hasn't been parsed.
+    private Inline inlineMethod(Expression.Call expr, LoxInstance instance, Token name) {
+        LoxFunction method = instance.klass().findMethod(name.lexeme);
+        if (method == null || instance.hasField(name.lexeme)) {
+            expr.inline = Inline.NEVER;
+        } else if (method.compiledBody() != null) {
+            expr.inline = Inline.method(instance.klass(), method, expr.arguments.size());
+        }
+
+        return expr.inline;
+    }
+
+    private Inline inlineFunction(Expression.Call expr, LoxFunction function) {
+        if (function.compiledBody() != null) {
+            expr.inline = Inline.function(function, expr.arguments.size());
+        }
+
+        return expr.inline;
+    }
+
+    // The same for the IR, which has the arguments already.
+    Object call(Expression.Call expr, Object callee, Object[] arguments) {
+        try {
+            switch (arguments.length) {
+                case 0: return callable(expr, callee, 0).call0(this);
+                case 1: return callable(expr, callee, 1).call1(this, arguments[0]);
+                case 2: return callable(expr, callee, 2).call2(this, arguments[0], arguments[1]);
+                case 3: return callable(expr, callee, 3).call3(this, arguments[0], arguments[1], arguments[2]);
+                default: return callable(expr, callee, arguments.length).call(this, arguments);
+            }
+        } catch (RuntimeError error) {
+            if (error.token == null) throw new RuntimeError(expr.closingParenthesis, error.getMessage());
+            throw error;
+        }
+    }
+
+    private LoxCallable callable(Expression.Call expr, Object callee, int argumentCount) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.closingParenthesis, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
 
-        if (arguments.size() != function.arity()) {
+        // What the call allocates (its environment, an instance) is charged to this line.
+        if (MemoryStats.enabled) MemoryStats.at(expr.closingParenthesis.line);
+
+        // The resolver already matched the argument count against the declaration.
+        if (expr.arityVerified) return function;
+
+        int arity = function.arity();
+        if (arity >= 0 && argumentCount != arity) {
             throw new RuntimeError(expr.closingParenthesis, "Expected " +
-                    function.arity() + " arguments but got " + arguments.size() + ".");
+                    arity + " arguments but got " + argumentCount + ".");
         }
 
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
     public Object visitGetExpression(Expression.Get expr) {
-        Object object = evaluate(expr.object);
+        return get(expr, evaluate(expr.object));
+    }
+
+    Object get(Expression.Get expr, Object object) {
         if (object instanceof LoxInstance) {
+            if (MemoryStats.enabled) MemoryStats.at(expr.name.line);
             return ((LoxInstance)object).get(expr.name);
+        } else if (object instanceof JavaObject) {
+            return ((JavaObject)object).get(expr.name);
+        } else if (object instanceof JavaClass) {
+            return ((JavaClass)object).get(expr.name);
+        } else if (object instanceof LoxModule) {
+            return ((LoxModule)object).get(expr.name);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -386,11 +781,28 @@ class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>
 
     void interpret(List<Statement> statements) {
         try {
-            for (Statement statement : statements) {
-                execute(statement);
-            }
+            run(statements);
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            isolate.runtimeError(error);
+        }
+    }
+
+    // interpret() without reporting the error.
+    void run(List<Statement> statements) {
+        try {
+            execute(statements);
+            // Then whatever the top level left waiting.
+            events.run(this);
+        } catch (RuntimeError error) {
+            events.clear();
+            throw error;
+        }
+    }
+
+    // Same as interpret() but lets runtime errors escape to the caller.
+    void execute(List<Statement> statements) {
+        for (Statement statement : statements) {
+            execute(statement);
         }
     }
 }
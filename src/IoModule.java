@@ -0,0 +1,249 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+// readLines(path, fn), readRecords(path, delimiter, fn), openLines(path),
+// openRecords(path, delimiter), readLine(file), openWriter(path), write(file, value),
+// writeLine(file, value), closeFile(file), readFileAsync(path, fn) and
+// writeFileAsync(path, text, fn).
+//
+// Files are streamed, see LoxFileReader. readLines() and readRecords() call fn with
+// every record and return how many there were. The open* functions return a file to
+// pull records from with readLine(), which gives nil at the end.
+//
+// Not installed unless the embedder calls Isolate.allowFileAccess() (the jlox shell
+// does). Files a script leaves open are closed at the end of the run.
+//
+// The async ones return right away and do the I/O on a virtual thread. fn is called
+// on the event loop with (error, value): nil and the file's text (or nil for a
+// write) when it worked, the error message and nil when it didn't. See EventLoop.
+class IoModule implements NativeModule {
+    @Override
+    public void install(Environment globals) {
+        globals.define("readLines", new NativeFunction.Binary("readLines") {
+            @Override
+            public Object call2(Interpreter interpreter, Object path, Object function) {
+                return each(interpreter, open(this, path, (byte)'\n'), callback(function, 1));
+            }
+        });
+
+        globals.define("readRecords", new NativeFunction.Ternary("readRecords") {
+            @Override
+            public Object call3(Interpreter interpreter, Object path, Object delimiter, Object function) {
+                return each(interpreter, open(this, path, delimiter(this, delimiter)), callback(function, 1));
+            }
+        });
+
+        globals.define("openLines", new NativeFunction.Unary("openLines") {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                LoxFileReader reader = open(this, path, (byte)'\n');
+                interpreter.isolate.opened(reader);
+                return reader;
+            }
+        });
+
+        globals.define("openRecords", new NativeFunction.Binary("openRecords") {
+            @Override
+            public Object call2(Interpreter interpreter, Object path, Object delimiter) {
+                LoxFileReader reader = open(this, path, delimiter(this, delimiter));
+                interpreter.isolate.opened(reader);
+                return reader;
+            }
+        });
+
+        globals.define("readLine", new NativeFunction.Unary("readLine") {
+            @Override
+            public Object call1(Interpreter interpreter, Object file) {
+                if (!(file instanceof LoxFileReader)) {
+                    throw new RuntimeError("Argument to 'readLine' must be a file opened for reading.");
+                }
+
+                LoxFileReader reader = (LoxFileReader)file;
+                try {
+                    return reader.next();
+                } catch (IOException error) {
+                    throw failed(reader.path, error);
+                }
+            }
+        });
+
+        globals.define("openWriter", new NativeFunction.Unary("openWriter") {
+            @Override
+            public Object call1(Interpreter interpreter, Object path) {
+                Path file = path(this, path);
+                try {
+                    LoxFileWriter writer = new LoxFileWriter(file);
+                    interpreter.isolate.opened(writer);
+                    return writer;
+                } catch (IOException error) {
+                    throw failed(file, error);
+                }
+            }
+        });
+
+        globals.define("write", new NativeFunction.Binary("write") {
+            @Override
+            public Object call2(Interpreter interpreter, Object file, Object value) {
+                LoxFileWriter writer = writer(this, file);
+                try {
+                    writer.write(value);
+                } catch (UncheckedIOException error) {
+                    throw failed(writer.path, error.getCause());
+                }
+
+                return null;
+            }
+        });
+
+        globals.define("writeLine", new NativeFunction.Binary("writeLine") {
+            @Override
+            public Object call2(Interpreter interpreter, Object file, Object value) {
+                LoxFileWriter writer = writer(this, file);
+                try {
+                    writer.writeLine(value);
+                } catch (UncheckedIOException error) {
+                    throw failed(writer.path, error.getCause());
+                }
+
+                return null;
+            }
+        });
+
+        globals.define("readFileAsync", new NativeFunction.Binary("readFileAsync") {
+            @Override
+            public Object call2(Interpreter interpreter, Object path, Object function) {
+                Path file = path(this, path);
+                LoxCallable callback = EventLoop.handOver(interpreter, callback(function, 2));
+
+                interpreter.events.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        try {
+                            return LoxString.of(Files.readString(file));
+                        } catch (IOException error) {
+                            throw failed(file, error);
+                        }
+                    }
+                }, callback);
+                return null;
+            }
+        });
+
+        globals.define("writeFileAsync", new NativeFunction.Ternary("writeFileAsync") {
+            @Override
+            public Object call3(Interpreter interpreter, Object path, Object value, Object function) {
+                Path file = path(this, path);
+                String text = Interpreter.stringify(value);
+                LoxCallable callback = EventLoop.handOver(interpreter, callback(function, 2));
+
+                interpreter.events.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        try {
+                            Files.writeString(file, text);
+                            return null;
+                        } catch (IOException error) {
+                            throw failed(file, error);
+                        }
+                    }
+                }, callback);
+                return null;
+            }
+        });
+
+        globals.define("closeFile", new NativeFunction.Unary("closeFile") {
+            @Override
+            public Object call1(Interpreter interpreter, Object file) {
+                if (file instanceof LoxFileReader) {
+                    LoxFileReader reader = (LoxFileReader)file;
+                    interpreter.isolate.closed(reader);
+                    try {
+                        reader.close();
+                    } catch (IOException error) {
+                        throw failed(reader.path, error);
+                    }
+                } else if (file instanceof LoxFileWriter) {
+                    LoxFileWriter writer = (LoxFileWriter)file;
+                    interpreter.isolate.closed(writer);
+                    try {
+                        writer.close();
+                    } catch (UncheckedIOException error) {
+                        throw failed(writer.path, error.getCause());
+                    }
+                } else {
+                    throw new RuntimeError("Argument to 'closeFile' must be a file.");
+                }
+
+                return null;
+            }
+        });
+    }
+
+    private static double each(Interpreter interpreter, LoxFileReader reader, LoxCallable function) {
+        double count = 0;
+        try {
+            for (LoxString record = reader.next(); record != null; record = reader.next()) {
+                function.call1(interpreter, record);
+                count++;
+            }
+        } catch (IOException error) {
+            throw failed(reader.path, error);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // nothing was written, there's nothing to lose
+            }
+        }
+
+        return count;
+    }
+
+    private static LoxFileReader open(NativeFunction function, Object path, byte delimiter) {
+        Path file = path(function, path);
+        try {
+            return new LoxFileReader(file, delimiter);
+        } catch (IOException error) {
+            throw failed(file, error);
+        }
+    }
+
+    private static Path path(NativeFunction function, Object path) {
+        try {
+            return Path.of(function.string(path).toString());
+        } catch (InvalidPathException error) {
+            throw new RuntimeError("Invalid path '" + path + "'.");
+        }
+    }
+
+    // Records are split on a single byte, so the delimiter has to be an ASCII character.
+    private static byte delimiter(NativeFunction function, Object delimiter) {
+        String string = function.string(delimiter).toString();
+        if (string.length() != 1 || string.charAt(0) >= 128) {
+            throw new RuntimeError("Delimiter must be a single ASCII character.");
+        }
+
+        return (byte)string.charAt(0);
+    }
+
+    private static LoxFileWriter writer(NativeFunction function, Object file) {
+        if (file instanceof LoxFileWriter) return (LoxFileWriter)file;
+        throw new RuntimeError("Argument to '" + function.name + "' must be a file opened for writing.");
+    }
+
+    private static RuntimeError failed(Path file, IOException error) {
+        if (error instanceof NoSuchFileException) {
+            return new RuntimeError("File '" + file + "' doesn't exist.");
+        }
+
+        String reason = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+        return new RuntimeError("I/O error on '" + file + "': " + reason);
+    }
+}
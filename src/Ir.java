@@ -0,0 +1,264 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// A function body in SSA form: a control flow graph of basic blocks whose
+// instructions each produce one value, with phis where control flow merges. Local
+// variables don't exist anymore at this point, every read of one is replaced by the
+// instruction that produced its value. That's what makes the optimizations in
+// IrOptimizer straightforward, and it's also why running the IR (IrInterpreter)
+// doesn't need environments at all, values live in a plain array.
+//
+// Only functions that don't need environments at runtime can be lowered: no nested
+// functions or classes, no "this" or "super", and no variables of enclosing
+// functions. Everything else keeps running on the tree. See IrBuilder.
+//
+// Pipeline: IrBuilder lowers the resolved tree, IrOptimizer rewrites the graph and
+// finish() numbers the values for IrInterpreter. compile() does all three once per
+// declaration and remembers the result on it.
+final class Ir {
+    enum Op {
+        CONST,          // value
+        PARAM,          // slot is the parameter's index
+        PHI,            // one argument per predecessor, in the block's preds order
+        GLOBAL_GET,     // slot, token
+        GLOBAL_SET,     // slot, token, args: value
+        BINARY,         // token is the operator, numeric if TypeInference proved it
+        NOT,
+        NEGATE,         // token, numeric
+        CALL,           // node, args: callee then arguments
+        GET,            // node, args: object
+        CHECK_FIELDS,   // node, args: object. The part of a property set that comes
+                        // before the value is evaluated.
+        SET,            // node, args: object, value
+        ARRAY,          // args: elements
+        INDEX,          // node, args: object, index
+        INDEX_SET,      // node, args: object, index, value
+        PRINT,          // args: value
+
+        // Terminators, one at the end of every block.
+        JUMP,           // targets[0]. Loop back edges have slot and token set, to charge
+                        // the Budget slot statements.
+        BRANCH,         // args: condition, targets: then, else
+        RETURN          // args: value, or none for nil
+    }
+
+    static final class Instr {
+        final Op op;
+        // Only for printing.
+        final int id;
+        final List<Instr> args = new ArrayList<>();
+        Block block;
+
+        Object value;
+        int slot = -1;
+        Token token;
+        Expression node;
+        boolean numeric = false;
+        Block[] targets;
+
+        // Filled in by finish().
+        int register = -1;
+        int[] operands;
+        // For each target, which of its predecessors this block is. Picks the phi inputs.
+        int[] incoming;
+
+        Instr(Op op, int id) {
+            this.op = op;
+            this.id = id;
+        }
+
+        boolean isTerminator() {
+            return op == Op.JUMP || op == Op.BRANCH || op == Op.RETURN;
+        }
+
+        // Can be dropped if nothing uses the value: no side effects and can't throw.
+        boolean isRemovable() {
+            switch (op) {
+                case CONST:
+                case PARAM:
+                case PHI:
+                case NOT:
+                case ARRAY:
+                    return true;
+                case NEGATE:
+                    return numeric;
+                case BINARY:
+                    // Equality never throws, everything else only with proven numbers.
+                    return numeric || token.type == TokenType.EQUAL_EQUAL
+                            || token.type == TokenType.BANG_EQUAL;
+                default:
+                    return false;
+            }
+        }
+
+        // On top of that the value only depends on the arguments, so the instruction
+        // can be moved, or merged with an identical one. Arrays are removable but each
+        // one is a new object.
+        boolean isPure() {
+            return isRemovable() && op != Op.ARRAY && op != Op.PHI && op != Op.PARAM;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            if (!isTerminator() && op != Op.PRINT) text.append('v').append(id).append(" = ");
+            text.append(op.name().toLowerCase());
+
+            if (op == Op.CONST) text.append(' ').append(Interpreter.stringify(value));
+            if (op == Op.BINARY || op == Op.GLOBAL_GET || op == Op.GLOBAL_SET) {
+                text.append(' ').append(token.lexeme);
+            }
+            if (op == Op.PARAM) text.append(' ').append(slot);
+            if (numeric) text.append(" (numeric)");
+
+            for (Instr arg : args) text.append(" v").append(arg.id);
+            if (targets != null) {
+                for (Block target : targets) text.append(" b").append(target.id);
+            }
+
+            return text.toString();
+        }
+    }
+
+    static final class Block {
+        final int id;
+        final List<Instr> phis = new ArrayList<>();
+        final List<Instr> instrs = new ArrayList<>();
+        final List<Block> preds = new ArrayList<>();
+        Instr terminator;
+
+        // Dominator tree, filled in by IrOptimizer.
+        Block idom;
+        int postorder = -1;
+
+        // Filled in by finish().
+        Instr[] phiCode;
+        Instr[] code;
+
+        Block(int id) {
+            this.id = id;
+        }
+
+        List<Block> successors() {
+            if (terminator == null || terminator.targets == null) return Collections.emptyList();
+            return Arrays.asList(terminator.targets);
+        }
+    }
+
+    static final class Function {
+        final String name;
+        final int arity;
+        // Entry block first.
+        final List<Block> blocks = new ArrayList<>();
+
+        private int instructions = 0;
+
+        // Filled in by finish().
+        int registers;
+        int maxPhis;
+
+        Function(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        Instr instr(Op op) {
+            return new Instr(op, instructions++);
+        }
+
+        Block block() {
+            Block block = new Block(blocks.size());
+            blocks.add(block);
+            return block;
+        }
+
+        Block entry() {
+            return blocks.get(0);
+        }
+
+        // Gives every value a slot in the frame and flattens the lists into arrays for
+        // IrInterpreter. The graph isn't changed after this.
+        void finish() {
+            int register = 0;
+            for (Block block : blocks) {
+                for (Instr phi : block.phis) phi.register = register++;
+                for (Instr instr : block.instrs) instr.register = register++;
+                maxPhis = Math.max(maxPhis, block.phis.size());
+            }
+            registers = register;
+
+            for (Block block : blocks) {
+                block.phiCode = block.phis.toArray(new Instr[0]);
+                block.code = block.instrs.toArray(new Instr[0]);
+
+                for (Instr phi : block.phis) number(phi);
+                for (Instr instr : block.instrs) number(instr);
+                number(block.terminator);
+
+                Instr end = block.terminator;
+                if (end.targets != null) {
+                    end.incoming = new int[end.targets.length];
+                    for (int i = 0; i < end.targets.length; i++) {
+                        end.incoming[i] = end.targets[i].preds.indexOf(block);
+                    }
+                }
+            }
+        }
+
+        private static void number(Instr instr) {
+            instr.operands = new int[instr.args.size()];
+            for (int i = 0; i < instr.operands.length; i++) {
+                instr.operands[i] = instr.args.get(i).register;
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("ir " + name + "\n");
+            for (Block block : blocks) {
+                text.append("b").append(block.id).append(":");
+                for (Block pred : block.preds) text.append(" <- b").append(pred.id);
+                text.append('\n');
+
+                for (Instr phi : block.phis) text.append("  ").append(phi).append('\n');
+                for (Instr instr : block.instrs) text.append("  ").append(instr).append('\n');
+                text.append("  ").append(block.terminator).append('\n');
+            }
+
+            return text.toString();
+        }
+    }
+
+    // Marks declarations the IR can't express, so we only try once.
+    private static final Function UNSUPPORTED = new Function("<unsupported>", 0);
+
+    private Ir() {}
+
+    // The optimized IR for a function body, or null if it can't be lowered. The
+    // result is kept on the declaration and shared by every closure and isolate.
+    static Function compile(Statement.Function declaration, List<Statement> body) {
+        Function function = declaration.ir;
+        if (function == null) {
+            synchronized (declaration) {
+                function = declaration.ir;
+                if (function == null) {
+                    function = new IrBuilder(declaration).build(body);
+                    if (function == null) {
+                        function = UNSUPPORTED;
+                    } else {
+                        new IrOptimizer(function).optimize();
+                        function.finish();
+                    }
+
+                    declaration.ir = function;
+                }
+            }
+        }
+
+        return function == UNSUPPORTED ? null : function;
+    }
+}
@@ -0,0 +1,482 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Lowers a resolved function body to SSA (see Ir). Builds the graph and the SSA form
+// in one pass, the way Braun et al. describe in "Simple and Efficient Construction of
+// Static Single Assignment Form": every block remembers the last value written to each
+// variable, and reading a variable a block hasn't written looks in its predecessors,
+// adding a phi where they can disagree. A block is "sealed" once all its predecessors
+// are known. Reads in a block that isn't sealed yet (a loop header while we're still
+// in the body) get a placeholder phi that's filled in when it is.
+//
+// Phis that turn out to have only one distinct input are left in, the copy
+// propagation pass in IrOptimizer takes them out.
+class IrBuilder implements Expression.Visitor<Ir.Instr>, Statement.Visitor<Void> {
+    // Thrown when the body uses something the IR can't do. Only ever caught in build().
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Statement.Function declaration;
+    private final Ir.Function function;
+    private Ir.Block current;
+
+    // Each declared variable is its own key, shadowing makes names ambiguous.
+    private final List<Map<String, Object>> scopes = new ArrayList<>();
+
+    private final Map<Ir.Block, Map<Object, Ir.Instr>> definitions = new HashMap<>();
+    private final Set<Ir.Block> sealed = new HashSet<>();
+    private final Map<Ir.Block, Map<Object, Ir.Instr>> incompletePhis = new HashMap<>();
+
+    IrBuilder(Statement.Function declaration) {
+        this.declaration = declaration;
+        this.function = new Ir.Function(declaration.name.lexeme, declaration.params.size());
+    }
+
+    // Null if the body can't be lowered.
+    Ir.Function build(List<Statement> body) {
+        try {
+            current = function.block();
+            seal(current);
+
+            beginScope();
+            for (int i = 0; i < declaration.params.size(); i++) {
+                Ir.Instr param = emit(Ir.Op.PARAM);
+                param.slot = i;
+                write(declare(declaration.params.get(i).lexeme), current, param);
+            }
+
+            lower(body);
+            endScope();
+
+            // Falling off the end returns nil.
+            if (current.terminator == null) terminate(function.instr(Ir.Op.RETURN));
+        } catch (Unsupported unsupported) {
+            return null;
+        }
+
+        removeUnreachable();
+        return function;
+    }
+
+    private void lower(List<Statement> statements) {
+        for (Statement statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private Ir.Instr lower(Expression expression) {
+        return expression.accept(this);
+    }
+
+    private Ir.Instr emit(Ir.Op op, Ir.Instr... args) {
+        Ir.Instr instr = function.instr(op);
+        for (Ir.Instr arg : args) instr.args.add(arg);
+        instr.block = current;
+        current.instrs.add(instr);
+        return instr;
+    }
+
+    private Ir.Instr constant(Object value) {
+        Ir.Instr instr = emit(Ir.Op.CONST);
+        instr.value = value;
+        return instr;
+    }
+
+    // Ends the current block. Code after a return goes into a block nothing jumps
+    // to, removeUnreachable() drops it.
+    private void terminate(Ir.Instr terminator) {
+        terminator.block = current;
+        current.terminator = terminator;
+
+        if (terminator.targets != null) {
+            for (Ir.Block target : terminator.targets) target.preds.add(current);
+        }
+
+        current = function.block();
+        seal(current);
+    }
+
+    private Ir.Instr jump(Ir.Block target) {
+        Ir.Instr jump = function.instr(Ir.Op.JUMP);
+        jump.targets = new Ir.Block[] { target };
+        terminate(jump);
+        return jump;
+    }
+
+    private void branch(Ir.Instr condition, Ir.Block then, Ir.Block otherwise) {
+        Ir.Instr branch = function.instr(Ir.Op.BRANCH);
+        branch.args.add(condition);
+        branch.targets = new Ir.Block[] { then, otherwise };
+        terminate(branch);
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<String, Object>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    private Object declare(String name) {
+        Object variable = new Object();
+        scopes.get(scopes.size() - 1).put(name, variable);
+        return variable;
+    }
+
+    // A variable of an enclosing function would need the closure's environment.
+    private Object find(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Object variable = scopes.get(i).get(name);
+            if (variable != null) return variable;
+        }
+
+        throw new Unsupported();
+    }
+
+    private void write(Object variable, Ir.Block block, Ir.Instr value) {
+        definitions.computeIfAbsent(block, key -> new HashMap<>()).put(variable, value);
+    }
+
+    private Ir.Instr read(Object variable, Ir.Block block) {
+        Map<Object, Ir.Instr> defined = definitions.get(block);
+        if (defined != null && defined.containsKey(variable)) return defined.get(variable);
+
+        Ir.Instr value;
+        if (!sealed.contains(block)) {
+            value = phi(block);
+            incompletePhis.computeIfAbsent(block, key -> new HashMap<>()).put(variable, value);
+        } else if (block.preds.size() == 1) {
+            value = read(variable, block.preds.get(0));
+        } else if (block.preds.isEmpty()) {
+            // Only in unreachable code.
+            value = function.instr(Ir.Op.CONST);
+            value.block = block;
+            block.instrs.add(0, value);
+        } else {
+            // Written first so a loop reading its own phi back terminates.
+            value = phi(block);
+            write(variable, block, value);
+            addPhiOperands(variable, value);
+        }
+
+        write(variable, block, value);
+        return value;
+    }
+
+    private Ir.Instr phi(Ir.Block block) {
+        Ir.Instr phi = function.instr(Ir.Op.PHI);
+        phi.block = block;
+        block.phis.add(phi);
+        return phi;
+    }
+
+    private void addPhiOperands(Object variable, Ir.Instr phi) {
+        for (Ir.Block pred : phi.block.preds) {
+            phi.args.add(read(variable, pred));
+        }
+    }
+
+    private void seal(Ir.Block block) {
+        Map<Object, Ir.Instr> incomplete = incompletePhis.remove(block);
+        if (incomplete != null) {
+            for (Map.Entry<Object, Ir.Instr> entry : incomplete.entrySet()) {
+                addPhiOperands(entry.getKey(), entry.getValue());
+            }
+        }
+
+        sealed.add(block);
+    }
+
+    // Drops blocks nothing can reach (the ones after a return) along with their
+    // inputs to the phis of the blocks they jump to.
+    private void removeUnreachable() {
+        Set<Ir.Block> reachable = new HashSet<>();
+        Deque<Ir.Block> work = new ArrayDeque<>();
+        work.push(function.entry());
+        while (!work.isEmpty()) {
+            Ir.Block block = work.pop();
+            if (!reachable.add(block)) continue;
+            for (Ir.Block next : block.successors()) work.push(next);
+        }
+
+        for (Ir.Block block : reachable) {
+            for (int i = block.preds.size() - 1; i >= 0; i--) {
+                if (reachable.contains(block.preds.get(i))) continue;
+
+                block.preds.remove(i);
+                for (Ir.Instr phi : block.phis) phi.args.remove(i);
+            }
+        }
+
+        function.blocks.retainAll(reachable);
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block stmt) {
+        beginScope();
+        lower(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStatement(Statement.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExprStatement(Statement.Expr stmt) {
+        lower(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If stmt) {
+        Ir.Instr condition = lower(stmt.condition);
+
+        Ir.Block then = function.block();
+        Ir.Block otherwise = function.block();
+        Ir.Block join = stmt.elseBranch == null ? otherwise : function.block();
+        branch(condition, then, otherwise);
+        seal(then);
+
+        current = then;
+        stmt.thenBranch.accept(this);
+        jump(join);
+
+        if (stmt.elseBranch != null) {
+            seal(otherwise);
+            current = otherwise;
+            stmt.elseBranch.accept(this);
+            jump(join);
+        }
+
+        seal(join);
+        current = join;
+        return null;
+    }
+
+    @Override
+    public Void visitImportStatement(Statement.Import stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print stmt) {
+        emit(Ir.Op.PRINT, lower(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return stmt) {
+        Ir.Instr value = stmt.value == null ? null : lower(stmt.value);
+
+        Ir.Instr ret = function.instr(Ir.Op.RETURN);
+        if (value != null) ret.args.add(value);
+        terminate(ret);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var stmt) {
+        Ir.Instr value = stmt.initializer == null ? constant(null) : lower(stmt.initializer);
+        write(declare(stmt.name.lexeme), current, value);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While stmt) {
+        // The header isn't sealed until the body has jumped back to it.
+        Ir.Block header = function.block();
+        jump(header);
+        current = header;
+
+        Ir.Instr condition = lower(stmt.condition);
+        Ir.Block body = function.block();
+        Ir.Block exit = function.block();
+        branch(condition, body, exit);
+        seal(body);
+
+        current = body;
+        stmt.body.accept(this);
+        Ir.Instr back = jump(header);
+        back.slot = stmt.weight;
+        back.token = stmt.keyword;
+
+        seal(header);
+        seal(exit);
+        current = exit;
+        return null;
+    }
+
+    @Override
+    public Ir.Instr visitArrayExpression(Expression.Array expr) {
+        List<Ir.Instr> elements = new ArrayList<>();
+        for (Expression element : expr.elements) elements.add(lower(element));
+        return emit(Ir.Op.ARRAY, elements.toArray(new Ir.Instr[0]));
+    }
+
+    @Override
+    public Ir.Instr visitAssignExpression(Expression.Assign expr) {
+        Ir.Instr value = lower(expr.value);
+
+        if (expr.globalSlot >= 0) {
+            Ir.Instr set = emit(Ir.Op.GLOBAL_SET, value);
+            set.slot = expr.globalSlot;
+            set.token = expr.name;
+            return set;
+        }
+
+        write(find(expr.name.lexeme), current, value);
+        return value;
+    }
+
+    @Override
+    public Ir.Instr visitBinaryExpression(Expression.Binary expr) {
+        Ir.Instr left = lower(expr.left);
+        Ir.Instr right = lower(expr.right);
+
+        Ir.Instr binary = emit(Ir.Op.BINARY, left, right);
+        binary.token = expr.operator;
+        binary.numeric = expr.numeric;
+        return binary;
+    }
+
+    @Override
+    public Ir.Instr visitCallExpression(Expression.Call expr) {
+        List<Ir.Instr> args = new ArrayList<>();
+        args.add(lower(expr.callee));
+        for (Expression argument : expr.arguments) args.add(lower(argument));
+
+        Ir.Instr call = emit(Ir.Op.CALL, args.toArray(new Ir.Instr[0]));
+        call.node = expr;
+        return call;
+    }
+
+    @Override
+    public Ir.Instr visitGetExpression(Expression.Get expr) {
+        Ir.Instr get = emit(Ir.Op.GET, lower(expr.object));
+        get.node = expr;
+        return get;
+    }
+
+    @Override
+    public Ir.Instr visitGroupingExpression(Expression.Grouping expr) {
+        return lower(expr.expression);
+    }
+
+    @Override
+    public Ir.Instr visitIndexExpression(Expression.Index expr) {
+        Ir.Instr object = lower(expr.object);
+        Ir.Instr index = lower(expr.index);
+
+        Ir.Instr get = emit(Ir.Op.INDEX, object, index);
+        get.node = expr;
+        return get;
+    }
+
+    @Override
+    public Ir.Instr visitIndexSetExpression(Expression.IndexSet expr) {
+        Ir.Instr object = lower(expr.object);
+        Ir.Instr index = lower(expr.index);
+        Ir.Instr value = lower(expr.value);
+
+        Ir.Instr set = emit(Ir.Op.INDEX_SET, object, index, value);
+        set.node = expr;
+        return set;
+    }
+
+    @Override
+    public Ir.Instr visitLiteralExpression(Expression.Literal expr) {
+        return constant(expr.value);
+    }
+
+    @Override
+    public Ir.Instr visitLogicalExpression(Expression.Logical expr) {
+        Ir.Instr left = lower(expr.left);
+        Ir.Block leftEnd = current;
+
+        // The result is left if it decides, right otherwise.
+        Ir.Block right = function.block();
+        Ir.Block join = function.block();
+        if (expr.operator.type == TokenType.OR) {
+            branch(left, join, right);
+        } else {
+            branch(left, right, join);
+        }
+        seal(right);
+
+        current = right;
+        Ir.Instr value = lower(expr.right);
+        jump(join);
+        seal(join);
+        current = join;
+
+        Ir.Instr phi = phi(join);
+        for (Ir.Block pred : join.preds) phi.args.add(pred == leftEnd ? left : value);
+        return phi;
+    }
+
+    @Override
+    public Ir.Instr visitSetExpression(Expression.Set expr) {
+        // The interpreter checks the object before it evaluates the value.
+        Ir.Instr object = emit(Ir.Op.CHECK_FIELDS, lower(expr.object));
+        object.node = expr;
+        Ir.Instr value = lower(expr.value);
+
+        Ir.Instr set = emit(Ir.Op.SET, object, value);
+        set.node = expr;
+        return set;
+    }
+
+    @Override
+    public Ir.Instr visitSuperExpression(Expression.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Ir.Instr visitThisExpression(Expression.This expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Ir.Instr visitUnaryExpression(Expression.Unary expr) {
+        Ir.Instr right = lower(expr.right);
+
+        if (expr.operator.type == TokenType.BANG) return emit(Ir.Op.NOT, right);
+
+        Ir.Instr negate = emit(Ir.Op.NEGATE, right);
+        negate.token = expr.operator;
+        negate.numeric = expr.numeric;
+        return negate;
+    }
+
+    @Override
+    public Ir.Instr visitVariableExpression(Expression.Variable expr) {
+        if (expr.globalSlot >= 0) {
+            Ir.Instr get = emit(Ir.Op.GLOBAL_GET);
+            get.slot = expr.globalSlot;
+            get.token = expr.name;
+            return get;
+        }
+
+        return read(find(expr.name.lexeme), current);
+    }
+}
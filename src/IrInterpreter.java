@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+// Runs a finished Ir.Function. The frame is an array with a slot for every value in
+// the function. Phis are evaluated together when a block is entered, picking the
+// input for the block we came from. The operations themselves are the interpreter's,
+// so errors and output are the same as running the tree.
+final class IrInterpreter {
+    private IrInterpreter() {}
+
+    static Object run(Ir.Function function, Interpreter interpreter, Object[] arguments) {
+        Object[] registers = new Object[function.registers];
+        Object[] moves = new Object[function.maxPhis];
+
+        Ir.Block block = function.entry();
+        int from = 0;
+
+        for (;;) {
+            Ir.Instr[] phis = block.phiCode;
+            for (int i = 0; i < phis.length; i++) moves[i] = registers[phis[i].operands[from]];
+            for (int i = 0; i < phis.length; i++) registers[phis[i].register] = moves[i];
+
+            for (Ir.Instr instr : block.code) {
+                registers[instr.register] = execute(instr, registers, arguments, interpreter);
+            }
+
+            Ir.Instr end = block.terminator;
+            switch (end.op) {
+                case JUMP:
+                    if (end.slot > 0) interpreter.charge(end.slot, end.token);
+                    from = end.incoming[0];
+                    block = end.targets[0];
+                    break;
+                case BRANCH: {
+                    int target = Interpreter.isTruthy(registers[end.operands[0]]) ? 0 : 1;
+                    from = end.incoming[target];
+                    block = end.targets[target];
+                    break;
+                }
+                default:
+                    return end.operands.length == 0 ? null : registers[end.operands[0]];
+            }
+        }
+    }
+
+    private static Object execute(Ir.Instr instr, Object[] registers, Object[] arguments,
+                                  Interpreter interpreter) {
+        int[] operands = instr.operands;
+
+        switch (instr.op) {
+            case CONST:
+                return instr.value;
+            case PARAM:
+                return arguments[instr.slot];
+            case GLOBAL_GET:
+                return interpreter.globals.get(instr.slot, instr.token);
+            case GLOBAL_SET: {
+                Object value = registers[operands[0]];
+                interpreter.globals.assign(instr.slot, instr.token, value);
+                return value;
+            }
+            case BINARY: {
+                Object left = registers[operands[0]];
+                Object right = registers[operands[1]];
+                if (instr.numeric) return interpreter.numeric(instr.token, (double)left, (double)right);
+                return interpreter.binary(instr.token, left, right);
+            }
+            case NOT:
+                return !Interpreter.isTruthy(registers[operands[0]]);
+            case NEGATE:
+                return interpreter.negate(instr.token, registers[operands[0]]);
+            case CALL: {
+                Object[] values = new Object[operands.length - 1];
+                for (int i = 0; i < values.length; i++) values[i] = registers[operands[i + 1]];
+                return interpreter.call((Expression.Call)instr.node, registers[operands[0]], values);
+            }
+            case GET:
+                return interpreter.get((Expression.Get)instr.node, registers[operands[0]]);
+            case CHECK_FIELDS: {
+                Object object = registers[operands[0]];
+                interpreter.checkFields((Expression.Set)instr.node, object);
+                return object;
+            }
+            case SET:
+                return interpreter.set((Expression.Set)instr.node, registers[operands[0]], registers[operands[1]]);
+            case ARRAY: {
+                LoxArray array = new LoxArray(operands.length);
+                for (int operand : operands) array.push(registers[operand]);
+                return array;
+            }
+            case INDEX:
+                return interpreter.index((Expression.Index)instr.node, registers[operands[0]], registers[operands[1]]);
+            case INDEX_SET:
+                return interpreter.indexSet((Expression.IndexSet)instr.node, registers[operands[0]],
+                        registers[operands[1]], registers[operands[2]]);
+            case PRINT:
+                interpreter.isolate.out.println(registers[operands[0]]);
+                return null;
+            default:
+                throw new IllegalStateException("Unexpected " + instr.op + " in a block.");
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The passes we run over a function's IR, in this order:
+//
+// - copy propagation: a phi whose inputs are all the same value (or itself) is just a
+//   copy of that value. The builder leaves lots of those at loop headers.
+// - common subexpression elimination: arithmetic that computes the same thing as an
+//   instruction that dominates it is replaced by that one.
+// - loop invariant code motion: pure instructions in a loop whose arguments come from
+//   outside it move to the block before the loop, so they run once.
+// - dead store elimination: assignments to locals are already gone (they're just SSA
+//   values), so what's left is removing instructions nobody uses and global stores
+//   that are overwritten before anything could see them.
+//
+// Only instructions that can't throw (Instr.isPure) are moved or removed, so a program
+// that fails still fails with the same error at the same point.
+class IrOptimizer {
+    private final Ir.Function function;
+
+    // Reverse postorder, which visits every block after the ones that dominate it.
+    private final List<Ir.Block> order = new ArrayList<>();
+
+    IrOptimizer(Ir.Function function) {
+        this.function = function;
+    }
+
+    void optimize() {
+        computeDominators();
+
+        propagateCopies();
+        eliminateCommonSubexpressions();
+        hoistLoopInvariants();
+        eliminateDeadStores();
+    }
+
+    // Cooper, Harvey and Kennedy, "A Simple, Fast Dominance Algorithm".
+    private void computeDominators() {
+        Set<Ir.Block> visited = new HashSet<>();
+        postorder(function.entry(), visited);
+
+        Ir.Block entry = function.entry();
+        entry.idom = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Ir.Block block : order) {
+                if (block == entry) continue;
+
+                Ir.Block idom = null;
+                for (Ir.Block pred : block.preds) {
+                    if (pred.idom == null) continue;
+                    idom = idom == null ? pred : intersect(pred, idom);
+                }
+
+                if (idom != block.idom) {
+                    block.idom = idom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private void postorder(Ir.Block block, Set<Ir.Block> visited) {
+        visited.add(block);
+        for (Ir.Block next : block.successors()) {
+            if (!visited.contains(next)) postorder(next, visited);
+        }
+
+        block.postorder = order.size();
+        order.add(0, block);
+    }
+
+    private static Ir.Block intersect(Ir.Block a, Ir.Block b) {
+        while (a != b) {
+            while (a.postorder < b.postorder) a = a.idom;
+            while (b.postorder < a.postorder) b = b.idom;
+        }
+
+        return a;
+    }
+
+    private static boolean dominates(Ir.Block a, Ir.Block b) {
+        while (true) {
+            if (a == b) return true;
+            if (b.idom == b) return false;
+            b = b.idom;
+        }
+    }
+
+    // Makes everything that used old use replacement instead.
+    private void replace(Ir.Instr old, Ir.Instr replacement) {
+        for (Ir.Block block : function.blocks) {
+            for (Ir.Instr phi : block.phis) replaceArgs(phi, old, replacement);
+            for (Ir.Instr instr : block.instrs) replaceArgs(instr, old, replacement);
+            replaceArgs(block.terminator, old, replacement);
+        }
+    }
+
+    private static void replaceArgs(Ir.Instr instr, Ir.Instr old, Ir.Instr replacement) {
+        List<Ir.Instr> args = instr.args;
+        for (int i = 0; i < args.size(); i++) {
+            if (args.get(i) == old) args.set(i, replacement);
+        }
+    }
+
+    private void propagateCopies() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (Ir.Block block : function.blocks) {
+                for (Ir.Instr phi : new ArrayList<>(block.phis)) {
+                    Ir.Instr same = copied(phi);
+                    if (same == null) continue;
+
+                    block.phis.remove(phi);
+                    replace(phi, same);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // The one value a phi copies, or null if its inputs differ.
+    private static Ir.Instr copied(Ir.Instr phi) {
+        Ir.Instr same = null;
+        for (Ir.Instr arg : phi.args) {
+            if (arg == phi || arg == same) continue;
+            if (same != null) return null;
+            same = arg;
+        }
+
+        return same;
+    }
+
+    private void eliminateCommonSubexpressions() {
+        Map<Ir.Block, List<Ir.Block>> children = new HashMap<>();
+        for (Ir.Block block : order) {
+            if (block.idom != block) {
+                children.computeIfAbsent(block.idom, key -> new ArrayList<>()).add(block);
+            }
+        }
+
+        eliminateCommonSubexpressions(function.entry(), children, new HashMap<List<Object>, Ir.Instr>());
+    }
+
+    // Walks the dominator tree, so everything in available dominates the block.
+    private void eliminateCommonSubexpressions(Ir.Block block, Map<Ir.Block, List<Ir.Block>> children,
+                                               Map<List<Object>, Ir.Instr> available) {
+        List<List<Object>> added = new ArrayList<>();
+
+        for (Ir.Instr instr : new ArrayList<>(block.instrs)) {
+            // Arithmetic that might throw is fine too. The one that dominates runs
+            // first, and if it threw we never get here.
+            boolean mergeable = instr.isPure() || instr.op == Ir.Op.BINARY || instr.op == Ir.Op.NEGATE;
+            if (!mergeable) continue;
+
+            List<Object> key = Arrays.asList(instr.op, instr.token == null ? null : instr.token.type,
+                    instr.value, instr.numeric, new ArrayList<>(instr.args));
+            Ir.Instr existing = available.get(key);
+            if (existing != null) {
+                block.instrs.remove(instr);
+                replace(instr, existing);
+            } else {
+                available.put(key, instr);
+                added.add(key);
+            }
+        }
+
+        List<Ir.Block> dominated = children.get(block);
+        if (dominated != null) {
+            for (Ir.Block child : dominated) eliminateCommonSubexpressions(child, children, available);
+        }
+
+        for (List<Object> key : added) available.remove(key);
+    }
+
+    private void hoistLoopInvariants() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (Ir.Block block : order) {
+                for (Ir.Block header : block.successors()) {
+                    // A jump back to a block that dominates us closes a loop.
+                    if (dominates(header, block)) changed |= hoist(header, loop(header, block));
+                }
+            }
+        }
+    }
+
+    // The blocks of the loop closed by the jump from latch to header.
+    private static Set<Ir.Block> loop(Ir.Block header, Ir.Block latch) {
+        Set<Ir.Block> body = new HashSet<>();
+        body.add(header);
+
+        Deque<Ir.Block> work = new ArrayDeque<>();
+        work.push(latch);
+        while (!work.isEmpty()) {
+            Ir.Block block = work.pop();
+            if (!body.add(block)) continue;
+            for (Ir.Block pred : block.preds) work.push(pred);
+        }
+
+        return body;
+    }
+
+    private boolean hoist(Ir.Block header, Set<Ir.Block> body) {
+        // Only into a block that's only ever followed by the loop.
+        Ir.Block preheader = null;
+        for (Ir.Block pred : header.preds) {
+            if (body.contains(pred)) continue;
+            if (preheader != null) return false;
+            preheader = pred;
+        }
+
+        if (preheader == null || preheader.successors().size() != 1) return false;
+
+        boolean changed = false;
+        for (Ir.Block block : order) {
+            if (!body.contains(block)) continue;
+
+            for (Ir.Instr instr : new ArrayList<>(block.instrs)) {
+                if (!instr.isPure() || !invariant(instr, body)) continue;
+
+                block.instrs.remove(instr);
+                preheader.instrs.add(instr);
+                instr.block = preheader;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private static boolean invariant(Ir.Instr instr, Set<Ir.Block> body) {
+        for (Ir.Instr arg : instr.args) {
+            if (body.contains(arg.block)) return false;
+        }
+
+        return true;
+    }
+
+    private void eliminateDeadStores() {
+        for (Ir.Block block : function.blocks) removeOverwrittenGlobals(block);
+
+        // Mark everything that has an effect and what it uses, drop the rest.
+        Set<Ir.Instr> live = new HashSet<>();
+        Deque<Ir.Instr> work = new ArrayDeque<>();
+        for (Ir.Block block : function.blocks) {
+            for (Ir.Instr instr : block.instrs) {
+                if (!instr.isRemovable()) work.push(instr);
+            }
+            work.push(block.terminator);
+        }
+
+        while (!work.isEmpty()) {
+            Ir.Instr instr = work.pop();
+            if (!live.add(instr)) continue;
+            for (Ir.Instr arg : instr.args) work.push(arg);
+        }
+
+        for (Ir.Block block : function.blocks) {
+            block.phis.retainAll(live);
+            block.instrs.retainAll(live);
+        }
+    }
+
+    // A global store followed by another store to the same global, with nothing in
+    // between that could read it or fail (and so end the run with the first value
+    // visible), never shows. The second one takes over the first one's token: if the
+    // global isn't defined, the first store is where the error would have been.
+    private void removeOverwrittenGlobals(Ir.Block block) {
+        Ir.Instr pending = null;
+
+        for (Ir.Instr instr : new ArrayList<>(block.instrs)) {
+            if (instr.op == Ir.Op.GLOBAL_SET) {
+                if (pending != null && pending.slot == instr.slot) {
+                    block.instrs.remove(pending);
+                    replace(pending, pending.args.get(0));
+                    instr.token = pending.token;
+                }
+
+                pending = instr;
+            } else if (!instr.isRemovable()) {
+                pending = null;
+            }
+        }
+    }
+}
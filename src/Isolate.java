@@ -0,0 +1,271 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Closeable;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// One independent Lox world: its own globals, resolver side table, error state
+// and output sink (buffered, see OutputBuffer). Nothing mutable is shared between
+// isolates, so any number of them can run at the same time on different threads.
+// A single isolate is still meant to be used by one thread at a time.
+public final class Isolate {
+    final OutputBuffer out;
+    final PrintWriter err;
+    final ErrorReporter errors;
+    final Interpreter interpreter;
+    private volatile boolean hadRuntimeError = false;
+    private boolean lazyParsing = false;
+    private volatile boolean fileAccess = false;
+    // Run functions that can be lowered to SSA through the optimizing IR, see Ir.
+    volatile boolean irEnabled = false;
+
+    // Limits for each run, see Budget.
+    final Budget budget = new Budget();
+
+    // Modules this isolate has imported, by file. Every import of a file gets the same one.
+    private final Map<Path, LoxModule> modules = new HashMap<>();
+
+    // Tasks started with spawn(). A run isn't over until all of them are.
+    private final Queue<LoxTask> tasks = new ConcurrentLinkedQueue<>();
+
+    // Files opened with openWriter(), openLines() or openRecords() and not closed yet.
+    // A run closes whatever the script left open, so what it wrote isn't lost in a
+    // buffer and readers don't hold on to their file.
+    private final Set<Closeable> files = ConcurrentHashMap.newKeySet();
+
+    public Isolate() {
+        this(new OutputStreamWriter(System.out, System.out.charset()), new PrintWriter(System.err, true));
+    }
+
+    public Isolate(Writer out, Writer err) {
+        this(out, err, null);
+    }
+
+    // Globals are copied in from the given map when a run starts and written back to it
+    // when the run is over, so several isolates can be handed the same map to share
+    // global bindings (they must not then run at the same time).
+    public Isolate(Writer out, Writer err, Map<String, Object> globals) {
+        this(out, err, globals, OutputBuffer.DEFAULT_SIZE);
+    }
+
+    // Output is buffered in outputBufferSize chars. 0 writes every print through right away.
+    public Isolate(Writer out, Writer err, Map<String, Object> globals, int outputBufferSize) {
+        this.out = new OutputBuffer(out, outputBufferSize);
+        this.err = err instanceof PrintWriter ? (PrintWriter)err : new PrintWriter(err, true);
+        this.errors = new ErrorReporter(this.err);
+        this.interpreter = new Interpreter(this, new GlobalEnvironment(globals));
+    }
+
+    public void run(String source) {
+        Program program = compile(source);
+        if (program != null) execute(program);
+    }
+
+    // Compile errors are reported to this isolate. Returns null if there were any.
+    public Program compile(String source) {
+        return Program.compile(source, errors, lazyParsing);
+    }
+
+    // For source read from a file. Its imports are relative to the file's directory.
+    public Program compile(String source, Path path) {
+        Path directory = path.toAbsolutePath().getParent();
+        return Program.compile(source, errors, lazyParsing, directory);
+    }
+
+    // Parse function bodies on their first call instead of up front (see LazyBody).
+    // Speeds up loading code that's mostly not run, but syntax errors in a body are
+    // only reported when it's called.
+    public void setLazyParsing(boolean lazy) {
+        this.lazyParsing = lazy;
+    }
+
+    // Gives scripts the file natives (see IoModule), in this isolate's globals and in
+    // every module it imports from now on. Off by default: with them a script can
+    // read and overwrite any file this process can.
+    public void allowFileAccess() {
+        if (fileAccess) return;
+
+        fileAccess = true;
+        NativeModule.FILES.install(interpreter.globals);
+    }
+
+    // Functions simple enough to lower run as optimized SSA instead of on the tree.
+    public void setIrEnabled(boolean enabled) {
+        irEnabled = enabled;
+    }
+
+    // Limits for every run after this, for scripts that can't be trusted. A run that
+    // goes over one ends with a runtime error. 0 (the default) means no limit.
+    public void setStatementLimit(long statements) {
+        budget.maxStatements = statements;
+    }
+
+    public void setCallDepthLimit(int depth) {
+        budget.maxCallDepth = depth;
+    }
+
+    public void setTimeLimit(long millis) {
+        budget.maxMillis = millis;
+    }
+
+    public void setAllocationLimit(long bytes) {
+        budget.maxBytes = bytes;
+    }
+
+    public void execute(Program program) {
+        execute(program, true);
+    }
+
+    // With report false a runtime error isn't printed, it's thrown to the caller once
+    // the run is wrapped up (for LoxScriptEngine).
+    void execute(Program program, boolean report) {
+        try {
+            budget.start(interpreter);
+            interpreter.globals.load();
+            interpreter.resolve(program.locals);
+            if (report) {
+                interpreter.interpret(program.statements);
+            } else {
+                interpreter.run(program.statements);
+            }
+        } finally {
+            awaitTasks();
+            // After a runtime error the tasks might have left callbacks behind, they
+            // mustn't run in the next run.
+            interpreter.events.clear();
+            interpreter.globals.save();
+            closeFiles();
+            out.flush();
+        }
+    }
+
+    // Runs the module's top level the first time it's imported here. The compiled
+    // Program comes from the process-wide ModuleCache. Imports are only allowed at
+    // the top level, so this is always called on the thread running the isolate.
+    LoxModule importModule(Statement.Import stmt, Interpreter interpreter) {
+        LoxModule module = modules.get(stmt.file);
+        if (module != null) {
+            if (!module.loaded) {
+                throw new RuntimeError(stmt.path, "Circular import of '" + stmt.file.getFileName() + "'.");
+            }
+
+            return module;
+        }
+
+        Program program;
+        try {
+            program = ModuleCache.compile(stmt.file, errors, lazyParsing);
+        } catch (IOException error) {
+            throw new RuntimeError(stmt.path, "Can't read module '" + stmt.file + "'.");
+        }
+
+        if (program == null) {
+            throw new RuntimeError(stmt.path, "Module '" + stmt.file.getFileName() + "' has errors.");
+        }
+
+        GlobalEnvironment globals = new GlobalEnvironment(null, stmt.file);
+        NativeModule.installAll(globals, fileAccess);
+        module = new LoxModule(stmt.file, globals);
+
+        modules.put(stmt.file, module);
+        try {
+            interpreter.runModule(program, globals);
+        } catch (RuntimeException error) {
+            // so importing it again runs it again instead of reporting a cycle
+            modules.remove(stmt.file);
+            throw error;
+        }
+
+        module.loaded = true;
+        return module;
+    }
+
+    void opened(Closeable file) {
+        files.add(file);
+    }
+
+    void closed(Closeable file) {
+        files.remove(file);
+    }
+
+    private void closeFiles() {
+        for (Closeable file : files) {
+            files.remove(file);
+            try {
+                file.close();
+            } catch (IOException error) {
+                err.println("Couldn't close " + file + ": " + error.getMessage());
+                hadRuntimeError = true;
+            } catch (UncheckedIOException error) {
+                err.println("Couldn't close " + file + ": " + error.getCause().getMessage());
+                hadRuntimeError = true;
+            }
+        }
+    }
+
+    void started(LoxTask task) {
+        tasks.add(task);
+    }
+
+    // Tasks can spawn more tasks while we wait, so keep going until the queue stays empty.
+    // With a time limit we only wait until it, then stop whatever is still running.
+    void awaitTasks() {
+        boolean stopping = false;
+        LoxTask task;
+        while ((task = tasks.poll()) != null) {
+            if (!stopping && task.await(Math.max(0, budget.timeLeft()))) continue;
+
+            // It's interrupted, or out of time itself at its next statement, so this
+            // doesn't take long. Nothing of the run should be left once we return.
+            task.stop();
+            task.await(Long.MAX_VALUE);
+            // Unless the run already ended on the limit itself.
+            if (!stopping && !hadRuntimeError) runtimeError(budget.outOfTime(null));
+            stopping = true;
+        }
+    }
+
+    // Makes a Java class visible to Lox as a global. Calling it constructs an instance,
+    // its static methods and fields are properties of it.
+    public void expose(String name, Class<?> type) {
+        interpreter.globals.define(name, new JavaClass(type));
+    }
+
+    // Makes a Java object visible to Lox as a global.
+    public void expose(String name, Object object) {
+        interpreter.globals.define(name, JavaInterop.toLox(object));
+    }
+
+    public boolean hadError() {
+        return errors.hadError();
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    synchronized void runtimeError(RuntimeError error) {
+        // so the error shows up after everything the script printed before it
+        out.flush();
+        // Only errors from natives the event loop called directly have no line.
+        if (error.token == null) {
+            err.println(error.getMessage());
+        } else if (error.file == null) {
+            err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        } else {
+            // Like compile errors in imported files.
+            err.println(error.getMessage() + "\n" + error.file + ": [line " + error.token.line + "]");
+        }
+        hadRuntimeError = true;
+    }
+}
@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A Java class handed to Lox. Calling it calls a constructor, its properties are the
+// static fields, getters and methods of the class.
+class JavaClass implements LoxCallable {
+    final Class<?> type;
+    private final JavaInterop.Members members;
+
+    JavaClass(Class<?> type) {
+        this.type = type;
+        this.members = JavaInterop.members(type);
+    }
+
+    Object get(Token name) {
+        return JavaInterop.get(members, null, name, true);
+    }
+
+    void set(Token name, Object value) {
+        JavaInterop.set(members, null, name, value, true);
+    }
+
+    // Constructors are overloaded, the right one is picked by the argument count.
+    @Override
+    public int arity() {
+        return -1;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return members.constructors.invoke(null, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return members.constructors.invoke0(null);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return members.constructors.invoke1(null, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return members.constructors.invoke2(null, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return members.constructors.invoke3(null, a, b, c);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof JavaClass && ((JavaClass)other).type == type;
+    }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "<java class " + type.getName() + ">";
+    }
+}
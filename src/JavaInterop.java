@@ -0,0 +1,587 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Binding layer between Lox values and Java objects.
+//
+// The members of every Java class we touch are looked up once and turned into
+// MethodHandles of a uniform shape: (Object receiver, Object arg0, ...)Object.
+// The argument conversions (a Lox number to an int parameter, for example) and the
+// return conversion are spliced into the handle itself, so a call is a single
+// invokeExact with no reflection and no boxing besides what Lox values already are.
+// Static members get a dummy receiver dropped in front so everything looks the same.
+final class JavaInterop {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandles.Lookup PUBLIC = MethodHandles.publicLookup();
+
+    private static final MethodHandle TO_INT = converter("toInt", int.class);
+    private static final MethodHandle TO_LONG = converter("toLong", long.class);
+    private static final MethodHandle TO_DOUBLE = converter("toDouble", double.class);
+    private static final MethodHandle TO_FLOAT = converter("toFloat", float.class);
+    private static final MethodHandle TO_SHORT = converter("toShort", short.class);
+    private static final MethodHandle TO_BYTE = converter("toByte", byte.class);
+    private static final MethodHandle TO_CHAR = converter("toChar", char.class);
+    private static final MethodHandle TO_BOOLEAN = converter("toBoolean", boolean.class);
+    private static final MethodHandle TO_STRING = converter("toJavaString", String.class);
+    private static final MethodHandle TO_REFERENCE;
+
+    private static final MethodHandle FROM_INT = returnConverter("fromInt", int.class);
+    private static final MethodHandle FROM_LONG = returnConverter("fromLong", long.class);
+    private static final MethodHandle FROM_FLOAT = returnConverter("fromFloat", float.class);
+    private static final MethodHandle FROM_CHAR = returnConverter("fromChar", char.class);
+    private static final MethodHandle FROM_STRING = returnConverter("fromString", String.class);
+    private static final MethodHandle FROM_OBJECT = returnConverter("toLox", Object.class);
+
+    static {
+        try {
+            TO_REFERENCE = LOOKUP.findStatic(JavaInterop.class, "toReference",
+                    MethodType.methodType(Object.class, Class.class, Object.class));
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private static final ClassValue<Members> MEMBERS = new ClassValue<Members>() {
+        @Override
+        protected Members computeValue(Class<?> type) {
+            return new Members(type);
+        }
+    };
+
+    private JavaInterop() {}
+
+    static Members members(Class<?> type) {
+        return MEMBERS.get(type);
+    }
+
+    // A Java value coming into Lox. Numbers become doubles, everything that
+    // isn't already a Lox value gets wrapped so Lox code can reach its members.
+    static Object toLox(Object value) {
+        if (value == null) return null;
+        if (value instanceof Double || value instanceof Boolean || value instanceof LoxString) return value;
+        if (value instanceof String) return LoxString.of((String)value);
+        if (value instanceof LoxCallable || value instanceof LoxInstance) return value;
+        if (value instanceof JavaObject) return value;
+        // Lox values that went out to Java (through bindings, or returned by an
+        // exposed method) come back as they are.
+        if (value instanceof LoxArray || value instanceof LoxMap || value instanceof LoxModule) return value;
+        if (value instanceof LoxFileReader || value instanceof LoxFileWriter) return value;
+        if (value instanceof LoxChannel || value instanceof LoxTask) return value;
+        if (value instanceof Number) return ((Number)value).doubleValue();
+        if (value instanceof Character) return LoxString.of(value.toString());
+        if (value instanceof Class) return new JavaClass((Class<?>)value);
+        return new JavaObject(value);
+    }
+
+    // A Lox value going out to Java code that takes a plain Object.
+    static Object toJava(Object value) {
+        if (value instanceof LoxString) return value.toString();
+        if (value instanceof JavaObject) return ((JavaObject)value).target;
+        if (value instanceof JavaClass) return ((JavaClass)value).type;
+        return value;
+    }
+
+    static int toInt(Object value) { return (int)integral(value, Integer.MIN_VALUE, 0x1p31, "int"); }
+    static long toLong(Object value) { return integral(value, Long.MIN_VALUE, 0x1p63, "long"); }
+    static double toDouble(Object value) { return number(value); }
+    static float toFloat(Object value) { return (float)number(value); }
+    static short toShort(Object value) { return (short)integral(value, Short.MIN_VALUE, 0x1p15, "short"); }
+    static byte toByte(Object value) { return (byte)integral(value, Byte.MIN_VALUE, 0x1p7, "byte"); }
+
+    static char toChar(Object value) {
+        if (value instanceof LoxString && ((LoxString)value).length() == 1) return value.toString().charAt(0);
+        throw new RuntimeError("Expected a single character string.");
+    }
+
+    static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) return (Boolean)value;
+        throw new RuntimeError("Expected a boolean.");
+    }
+
+    static String toJavaString(Object value) {
+        if (value == null) return null;
+        if (value instanceof LoxString) return value.toString();
+        throw new RuntimeError("Expected a string.");
+    }
+
+    static Object toReference(Class<?> type, Object value) {
+        Object java = toJava(value);
+        if (java == null || type.isInstance(java)) return java;
+
+        // Boxed parameters (Integer, Long...) still take Lox numbers.
+        if (value instanceof Double) {
+            double number = (Double)value;
+            if (type == Integer.class) return toInt(value);
+            if (type == Long.class) return toLong(value);
+            if (type == Float.class) return (float)number;
+            if (type == Short.class) return toShort(value);
+            if (type == Byte.class) return toByte(value);
+        }
+
+        throw new RuntimeError("Expected " + type.getSimpleName() + ".");
+    }
+
+    static Object fromInt(int value) { return (double)value; }
+    static Object fromLong(long value) { return (double)value; }
+    static Object fromFloat(float value) { return (double)value; }
+    static Object fromChar(char value) { return LoxString.of(String.valueOf(value)); }
+    static Object fromString(String value) { return value == null ? null : LoxString.of(value); }
+
+    private static double number(Object value) {
+        if (value instanceof Double) return (Double)value;
+        throw new RuntimeError("Expected a number.");
+    }
+
+    // Integral parameters only take whole numbers in [min, end), like
+    // NativeFunction.integer(). A cast would quietly turn 1.5 into 1 and wrap
+    // anything too big around.
+    private static long integral(Object value, double min, double end, String type) {
+        double number = number(value);
+        if (!whole(number, min, end)) {
+            throw new RuntimeError("Expected an integer in the range of " + type + ", got " + Interpreter.stringify(value) + ".");
+        }
+
+        return (long)number;
+    }
+
+    private static boolean whole(double number, double min, double end) {
+        return number == Math.floor(number) && number >= min && number < end;
+    }
+
+    // Whether the number can go to a parameter of the type without being cut down.
+    // Used to pick an overload, the to*() converters check the same thing.
+    static boolean fits(Class<?> type, double number) {
+        if (type == int.class || type == Integer.class) return whole(number, Integer.MIN_VALUE, 0x1p31);
+        if (type == long.class || type == Long.class) return whole(number, Long.MIN_VALUE, 0x1p63);
+        if (type == short.class || type == Short.class) return whole(number, Short.MIN_VALUE, 0x1p15);
+        if (type == byte.class || type == Byte.class) return whole(number, Byte.MIN_VALUE, 0x1p7);
+        return true;
+    }
+
+    private static MethodHandle converter(String name, Class<?> returnType) {
+        try {
+            return LOOKUP.findStatic(JavaInterop.class, name, MethodType.methodType(returnType, Object.class));
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private static MethodHandle returnConverter(String name, Class<?> parameterType) {
+        try {
+            return LOOKUP.findStatic(JavaInterop.class, name, MethodType.methodType(Object.class, parameterType));
+        } catch (ReflectiveOperationException error) {
+            throw new ExceptionInInitializerError(error);
+        }
+    }
+
+    private static MethodHandle argumentConverter(Class<?> type) {
+        if (type == int.class) return TO_INT;
+        if (type == long.class) return TO_LONG;
+        if (type == double.class) return TO_DOUBLE;
+        if (type == float.class) return TO_FLOAT;
+        if (type == short.class) return TO_SHORT;
+        if (type == byte.class) return TO_BYTE;
+        if (type == char.class) return TO_CHAR;
+        if (type == boolean.class) return TO_BOOLEAN;
+        if (type == String.class) return TO_STRING;
+        return MethodHandles.insertArguments(TO_REFERENCE, 0, type).asType(MethodType.methodType(type, Object.class));
+    }
+
+    private static MethodHandle returnConverter(Class<?> type) {
+        if (type == void.class || type == double.class || type == boolean.class) {
+            return null; // asType() boxes these (or yields nil) the way Lox wants them
+        }
+        if (type == int.class || type == short.class || type == byte.class) return FROM_INT;
+        if (type == long.class) return FROM_LONG;
+        if (type == float.class) return FROM_FLOAT;
+        if (type == char.class) return FROM_CHAR;
+        if (type == String.class) return FROM_STRING;
+        return FROM_OBJECT;
+    }
+
+    // Turns a direct handle into (Object receiver, Object... args)Object with every
+    // conversion baked in.
+    private static MethodHandle adapt(MethodHandle target, Class<?>[] parameters, Class<?> returnType, boolean isStatic) {
+        MethodHandle handle = target;
+        int offset = isStatic ? 0 : 1;
+
+        MethodHandle[] filters = new MethodHandle[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            filters[i] = argumentConverter(parameters[i]);
+        }
+        handle = MethodHandles.filterArguments(handle, offset, filters);
+
+        MethodHandle result = returnConverter(returnType);
+        if (result != null) {
+            handle = MethodHandles.filterReturnValue(handle,
+                    result.asType(MethodType.methodType(Object.class, returnType)));
+        }
+
+        // The receiver is always the raw Java object, asType() below casts it.
+        if (isStatic) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+
+        return handle.asType(MethodType.genericMethodType(parameters.length + 1));
+    }
+
+    // Methods declared on non-public classes (like the iterator of an ArrayList) can't
+    // be called through the public lookup. Find the same method on a public supertype.
+    private static Method accessible(Method method) {
+        if (Modifier.isPublic(method.getDeclaringClass().getModifiers())) return method;
+
+        List<Class<?>> supertypes = new ArrayList<>();
+        supertypes.add(method.getDeclaringClass());
+        for (int i = 0; i < supertypes.size(); i++) {
+            Class<?> type = supertypes.get(i);
+            if (type.getSuperclass() != null) supertypes.add(type.getSuperclass());
+            for (Class<?> iface : type.getInterfaces()) supertypes.add(iface);
+
+            if (i == 0 || !Modifier.isPublic(type.getModifiers())) continue;
+            try {
+                return type.getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException ignored) {
+                // keep looking
+            }
+        }
+
+        return null;
+    }
+
+    // One callable Java member with a fixed number of parameters.
+    static final class Overload {
+        final Class<?>[] parameters;
+        final MethodHandle handle;
+
+        Overload(Class<?>[] parameters, MethodHandle handle) {
+            this.parameters = parameters;
+            this.handle = handle;
+        }
+
+        boolean accepts(List<Object> arguments) {
+            for (int i = 0; i < parameters.length; i++) {
+                if (!accepts(parameters[i], arguments.get(i))) return false;
+            }
+
+            return true;
+        }
+
+        private static boolean accepts(Class<?> type, Object value) {
+            if (type.isPrimitive()) {
+                if (type == boolean.class) return value instanceof Boolean;
+                if (type == char.class) return value instanceof LoxString && ((LoxString)value).length() == 1;
+                return value instanceof Double && fits(type, (Double)value);
+            }
+            if (value == null) return true;
+            if (value instanceof Double && Number.class.isAssignableFrom(type)) return fits(type, (Double)value);
+
+            return type.isInstance(toJava(value));
+        }
+    }
+
+    // Every overload of one method (or of the constructors), grouped by arity.
+    static final class OverloadSet {
+        private static final Overload[] NONE = new Overload[0];
+
+        final String name;
+        private Overload[][] byArity = new Overload[0][];
+
+        OverloadSet(String name) {
+            this.name = name;
+        }
+
+        // Lox numbers are doubles, so when several overloads would take the same arguments
+        // (Math.max has int, long, float and double versions) the one that doesn't
+        // truncate should win. Overloads with more double parameters are tried first.
+        void add(Overload overload) {
+            int arity = overload.parameters.length;
+            if (arity >= byArity.length) byArity = Arrays.copyOf(byArity, arity + 1);
+
+            Overload[] overloads = byArity[arity] == null ? NONE : byArity[arity];
+            int index = 0;
+            while (index < overloads.length && doubles(overloads[index]) >= doubles(overload)) index++;
+
+            Overload[] grown = new Overload[overloads.length + 1];
+            System.arraycopy(overloads, 0, grown, 0, index);
+            grown[index] = overload;
+            System.arraycopy(overloads, index, grown, index + 1, overloads.length - index);
+            byArity[arity] = grown;
+        }
+
+        private static int doubles(Overload overload) {
+            int count = 0;
+            for (Class<?> parameter : overload.parameters) {
+                if (parameter == double.class || parameter == Double.class) count++;
+            }
+
+            return count;
+        }
+
+        // The overload to call without looking at the arguments, if there's only one.
+        private Overload only(int arity) {
+            if (arity >= byArity.length || byArity[arity] == null || byArity[arity].length != 1) return null;
+            return byArity[arity][0];
+        }
+
+        Object invoke0(Object receiver) {
+            Overload overload = only(0);
+            if (overload == null) return invoke(receiver, Collections.emptyList());
+
+            try {
+                return (Object)overload.handle.invokeExact(receiver);
+            } catch (Throwable error) {
+                throw rethrow(error);
+            }
+        }
+
+        Object invoke1(Object receiver, Object a) {
+            Overload overload = only(1);
+            if (overload == null) return invoke(receiver, Collections.singletonList(a));
+
+            try {
+                return (Object)overload.handle.invokeExact(receiver, a);
+            } catch (Throwable error) {
+                throw rethrow(error);
+            }
+        }
+
+        Object invoke2(Object receiver, Object a, Object b) {
+            Overload overload = only(2);
+            if (overload == null) return invoke(receiver, Arrays.asList(a, b));
+
+            try {
+                return (Object)overload.handle.invokeExact(receiver, a, b);
+            } catch (Throwable error) {
+                throw rethrow(error);
+            }
+        }
+
+        Object invoke3(Object receiver, Object a, Object b, Object c) {
+            Overload overload = only(3);
+            if (overload == null) return invoke(receiver, Arrays.asList(a, b, c));
+
+            try {
+                return (Object)overload.handle.invokeExact(receiver, a, b, c);
+            } catch (Throwable error) {
+                throw rethrow(error);
+            }
+        }
+
+        Object invoke(Object receiver, List<Object> arguments) {
+            int arity = arguments.size();
+            Overload[] candidates = arity < byArity.length ? byArity[arity] : null;
+            if (candidates == null) {
+                throw new RuntimeError("No overload of '" + name + "' takes " + arity + " arguments.");
+            }
+
+            Overload overload = null;
+            for (Overload candidate : candidates) {
+                if (candidates.length == 1 || candidate.accepts(arguments)) {
+                    overload = candidate;
+                    break;
+                }
+            }
+
+            if (overload == null) {
+                throw new RuntimeError("No overload of '" + name + "' accepts these arguments.");
+            }
+
+            try {
+                List<Object> all = new ArrayList<>(arity + 1);
+                all.add(receiver);
+                all.addAll(arguments);
+                return overload.handle.invokeWithArguments(all);
+            } catch (Throwable error) {
+                throw rethrow(error);
+            }
+        }
+
+        private RuntimeException rethrow(Throwable error) {
+            if (error instanceof RuntimeError) return (RuntimeError)error;
+            if (error instanceof Error) throw (Error)error;
+            return new RuntimeError("Java exception in '" + name + "': " + error);
+        }
+    }
+
+    // Everything Lox can reach on one Java class.
+    static final class Members {
+        final Class<?> type;
+        final OverloadSet constructors;
+        private final Map<String, OverloadSet> methods = new HashMap<>();
+        private final Map<String, OverloadSet> staticMethods = new HashMap<>();
+        private final Map<String, MethodHandle> getters = new HashMap<>();
+        private final Map<String, MethodHandle> setters = new HashMap<>();
+        private final Map<String, MethodHandle> staticGetters = new HashMap<>();
+        private final Map<String, MethodHandle> staticSetters = new HashMap<>();
+
+        Members(Class<?> type) {
+            this.type = type;
+            this.constructors = new OverloadSet(type.getSimpleName());
+
+            if (!Modifier.isPublic(type.getModifiers())) {
+                // Only the public API of a non-public class is reachable, through its supertypes.
+            } else {
+                for (Constructor<?> constructor : type.getConstructors()) {
+                    if (constructor.isVarArgs()) continue;
+                    try {
+                        MethodHandle handle = PUBLIC.unreflectConstructor(constructor);
+                        constructors.add(new Overload(constructor.getParameterTypes(),
+                                adapt(handle, constructor.getParameterTypes(), type, true)));
+                    } catch (IllegalAccessException ignored) {
+                        // not exported to us
+                    }
+                }
+
+                for (Field field : type.getFields()) {
+                    addField(field);
+                }
+            }
+
+            // Bridge methods are kept unless they duplicate a real method: javac emits them as the
+            // public face of methods inherited from non-public classes (StringBuilder.length()).
+            Set<String> signatures = new HashSet<>();
+            for (Method method : type.getMethods()) {
+                if (!method.isBridge()) signatures.add(signature(method));
+            }
+
+            for (Method method : type.getMethods()) {
+                if (method.isVarArgs()) continue;
+                if (method.isBridge() && signatures.contains(signature(method))) continue;
+                Method reachable = accessible(method);
+                if (reachable == null) continue;
+                addMethod(reachable);
+            }
+        }
+
+        private static String signature(Method method) {
+            return method.getName() + Arrays.toString(method.getParameterTypes());
+        }
+
+        private void addMethod(Method method) {
+            boolean isStatic = Modifier.isStatic(method.getModifiers());
+            MethodHandle handle;
+            try {
+                handle = PUBLIC.unreflect(method);
+            } catch (IllegalAccessException error) {
+                return;
+            }
+
+            Class<?>[] parameters = method.getParameterTypes();
+            MethodHandle adapted = adapt(handle, parameters, method.getReturnType(), isStatic);
+            Map<String, OverloadSet> table = isStatic ? staticMethods : methods;
+            table.computeIfAbsent(method.getName(), OverloadSet::new).add(new Overload(parameters, adapted));
+
+            String property = propertyName(method);
+            if (property == null) return;
+
+            Map<String, MethodHandle> accessors;
+            if (parameters.length == 0) {
+                accessors = isStatic ? staticGetters : getters;
+            } else {
+                accessors = isStatic ? staticSetters : setters;
+            }
+            accessors.putIfAbsent(property, adapted);
+        }
+
+        private void addField(Field field) {
+            boolean isStatic = Modifier.isStatic(field.getModifiers());
+            String name = field.getName();
+
+            try {
+                MethodHandle getter = PUBLIC.unreflectGetter(field);
+                (isStatic ? staticGetters : getters).putIfAbsent(name,
+                        adapt(getter, new Class<?>[0], field.getType(), isStatic));
+
+                if (!Modifier.isFinal(field.getModifiers())) {
+                    MethodHandle setter = PUBLIC.unreflectSetter(field);
+                    (isStatic ? staticSetters : setters).putIfAbsent(name,
+                            adapt(setter, new Class<?>[] { field.getType() }, void.class, isStatic));
+                }
+            } catch (IllegalAccessException ignored) {
+                // not exported to us
+            }
+        }
+
+        // getName() and isName() are read as "name", setName(x) is written as "name".
+        private static String propertyName(Method method) {
+            String name = method.getName();
+            int parameters = method.getParameterCount();
+            String stripped = null;
+
+            if (parameters == 0 && method.getReturnType() != void.class) {
+                if (name.startsWith("get") && name.length() > 3) stripped = name.substring(3);
+                if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+                    stripped = name.substring(2);
+                }
+            } else if (parameters == 1 && name.startsWith("set") && name.length() > 3) {
+                stripped = name.substring(3);
+            }
+
+            if (stripped == null || !Character.isUpperCase(stripped.charAt(0))) return null;
+            return Character.toLowerCase(stripped.charAt(0)) + stripped.substring(1);
+        }
+
+        OverloadSet method(String name, boolean isStatic) {
+            return (isStatic ? staticMethods : methods).get(name);
+        }
+
+        MethodHandle getter(String name, boolean isStatic) {
+            return (isStatic ? staticGetters : getters).get(name);
+        }
+
+        MethodHandle setter(String name, boolean isStatic) {
+            return (isStatic ? staticSetters : setters).get(name);
+        }
+    }
+
+    static Object get(Members members, Object receiver, Token name, boolean isStatic) {
+        MethodHandle getter = members.getter(name.lexeme, isStatic);
+        if (getter != null) {
+            try {
+                return (Object)getter.invokeExact(receiver);
+            } catch (RuntimeError error) {
+                throw new RuntimeError(name, error.getMessage());
+            } catch (Error error) {
+                throw error;
+            } catch (Throwable error) {
+                throw new RuntimeError(name, "Java exception in '" + name.lexeme + "': " + error);
+            }
+        }
+
+        OverloadSet method = members.method(name.lexeme, isStatic);
+        if (method != null) return new JavaMethod(receiver, method);
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+    }
+
+    static void set(Members members, Object receiver, Token name, Object value, boolean isStatic) {
+        MethodHandle setter = members.setter(name.lexeme, isStatic);
+        if (setter == null) {
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+
+        try {
+            Object ignored = (Object)setter.invokeExact(receiver, value);
+        } catch (RuntimeError error) {
+            throw new RuntimeError(name, error.getMessage());
+        } catch (Error error) {
+            throw error;
+        } catch (Throwable error) {
+            throw new RuntimeError(name, "Java exception in '" + name.lexeme + "': " + error);
+        }
+    }
+}
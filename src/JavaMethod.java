@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A Java method bound to its receiver (null for static methods).
+class JavaMethod implements LoxCallable {
+    private final Object receiver;
+    private final JavaInterop.OverloadSet overloads;
+
+    JavaMethod(Object receiver, JavaInterop.OverloadSet overloads) {
+        this.receiver = receiver;
+        this.overloads = overloads;
+    }
+
+    // Overloads are picked by the argument count when called.
+    @Override
+    public int arity() {
+        return -1;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return overloads.invoke(receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return overloads.invoke0(receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return overloads.invoke1(receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return overloads.invoke2(receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return overloads.invoke3(receiver, a, b, c);
+    }
+
+    @Override
+    public String toString() {
+        return "<java method " + overloads.name + ">";
+    }
+}
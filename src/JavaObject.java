@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox;
+
+// A Java object handed to Lox. Properties map to getters/setters or public fields,
+// anything else is looked up as a method.
+class JavaObject {
+    final Object target;
+    private final JavaInterop.Members members;
+
+    JavaObject(Object target) {
+        this.target = target;
+        this.members = JavaInterop.members(target.getClass());
+    }
+
+    Object get(Token name) {
+        return JavaInterop.get(members, target, name, false);
+    }
+
+    void set(Token name, Object value) {
+        JavaInterop.set(members, target, name, value, false);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof JavaObject)) return false;
+        return target.equals(((JavaObject)other).target);
+    }
+
+    @Override
+    public int hashCode() {
+        return target.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return target.toString();
+    }
+}
@@ -0,0 +1,95 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A function body the parser only brace-matched (lazy parsing, see Parser). It's
+// parsed and resolved the first time the function is called, so loading a big
+// library only costs as much as the functions a run actually calls.
+//
+// Resolving it later has to give the same answers as resolving it in place. The
+// resolver saves the scopes it's in when it reaches the declaration (scope) and
+// starts from those.
+//
+// By then the program is running, so errors in the body are a runtime error of the
+// call (with the compile errors in its message), not compile errors of the program.
+class LazyBody {
+    private final List<Token> tokens;
+    private final int start;
+    private final int end;
+
+    // Names the body assigns to. The resolver treats those as reassigned in the
+    // enclosing scopes without looking inside, see Resolver.LocalFunction.
+    final List<String> assigned;
+
+    // Set by the resolver when it passes the declaration.
+    Resolver.Scope scope;
+
+    // Filled in by the first call. A program can run on several threads at once, so
+    // compile() is synchronized and these are published through volatile.
+    private volatile List<Statement> body;
+    private volatile Map<Expression, Integer> locals;
+    // The runtime error's message once compiling failed.
+    private volatile String failure;
+
+    // tokens[start, end) is everything between the braces.
+    LazyBody(List<Token> tokens, int start, int end, List<String> assigned) {
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+        this.assigned = assigned;
+    }
+
+    List<Statement> body(Statement.Function declaration) {
+        List<Statement> statements = body;
+        if (statements != null) return statements;
+
+        compile(declaration);
+        return body;
+    }
+
+    // Null until the first call compiled it.
+    List<Statement> compiled() {
+        return body;
+    }
+
+    // Side table entries for the body. Only valid after body().
+    Map<Expression, Integer> locals() {
+        return locals;
+    }
+
+    // A null token makes the call site the error's line, see Interpreter.
+    private synchronized void compile(Statement.Function declaration) {
+        if (body != null) return;
+        if (failure != null) throw new RuntimeError(failure);
+
+        ErrorReporter errors = new ErrorReporter();
+
+        List<Token> bodyTokens = new ArrayList<>(tokens.subList(start, end));
+        int line = tokens.get(end).line;
+        bodyTokens.add(new Token(TokenType.EOF, "", null, line));
+
+        List<Statement> statements = new Parser(bodyTokens, errors, true).parse();
+
+        Map<Expression, Integer> resolved = new HashMap<>();
+        if (!errors.hadError()) {
+            new Resolver(resolved, errors).resolveLazy(declaration, statements, scope);
+        }
+
+        if (errors.hadError()) {
+            failure = compileError(declaration) + "\n" + String.join("\n", errors.messages());
+            throw new RuntimeError(failure);
+        }
+
+        new TypeInference().infer(declaration, statements);
+
+        locals = resolved;
+        body = statements;
+    }
+
+    private static String compileError(Statement.Function declaration) {
+        return "Can't call '" + declaration.name.lexeme + "', its body has errors.";
+    }
+}
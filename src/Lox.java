@@ -3,34 +3,70 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 // application shell. Not necessarily the interpreter itself.
+// All interpreter state lives in an Isolate, the shell just owns one of them.
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static final Isolate isolate = new Isolate();
+    private static boolean lazy = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64); 
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        // Scripts run from the shell are trusted with the user's files.
+        isolate.allowFileAccess();
+
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--"); first++) {
+            if (args[first].equals("--memstats")) {
+                // allocation report on stderr at exit, see MemoryStats
+                MemoryStats.enable();
+            } else if (args[first].equals("--ir")) {
+                isolate.setIrEnabled(true);
+            } else if (args[first].equals("--lazy")) {
+                lazy = true;
+                isolate.setLazyParsing(true);
+            } else {
+                usage();
+            }
+        }
+
+        if (args.length - first > 1) {
+            usage();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--memstats] [--lazy] [--ir] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        // The script and everything it imports is compiled up front, in parallel.
+        Path script = Paths.get(path).toAbsolutePath().normalize();
+        ProjectLoader.Result result = new ProjectLoader(ForkJoinPool.commonPool(), lazy).load(script);
+
+        // Errors in imported files say which file they're in.
+        for (Map.Entry<Path, List<String>> file : result.errors.entrySet()) {
+            String prefix = file.getKey().equals(script) ? "" : file.getKey() + ": ";
+            for (String message : file.getValue()) {
+                System.err.println(prefix + message);
+            }
+        }
 
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if (result.hadError()) System.exit(65);
+
+        isolate.execute(result.program);
+
+        if (isolate.hadError()) System.exit(65);
+        if (isolate.hadRuntimeError()) System.exit(70);
     }
 
     private static void runPrompt() throws IOException {
@@ -41,50 +77,8 @@ public class Lox {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
-            hadError = false; // prevent errors from just killing a REPL sesh
+            isolate.run(line);
+            isolate.errors.reset(); // prevent errors from just killing a REPL sesh
         }
     }
-
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-
-        Parser parser = new Parser(tokens);
-        List<Statement> statements = parser.parse();
-
-        // Stop if there was a syntax error
-        if (hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        // Stop if there was a resolution error.
-        if (hadError) return;
-
-        //System.out.println(new AstPrinter().print(expression));
-        interpreter.interpret(statements);
-    }
-
-    static void error(int line, String message) {
-    report(line, "", message);
-  }
-
-  private static void report(int line, String where, String message) {
-      System.err.println("[line " + line + "] Error" + where + ": " + message);
-      hadError = true;
-  }
-
-  static void error(Token token, String message) {
-      if (token.type == TokenType.EOF) {
-          report(token.line, " at end", message);
-      } else {
-          report(token.line, " at '" + token.lexeme + "'", message);
-      }
-  }
-
-  static void runtimeError(RuntimeError error) {
-      System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-      hadRuntimeError = true;
-  }
 }
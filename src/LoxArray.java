@@ -0,0 +1,184 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Set;
+
+// Growable array. While every element is a number they're kept unboxed in a double[],
+// which is compact and cache friendly for numeric code. The first non-number stored
+// moves everything over to an Object[] for good.
+class LoxArray {
+    private static final int MIN_CAPACITY = 8;
+
+    private double[] numbers;
+    private Object[] objects;
+    private int size;
+
+    // Same confinement scheme as Environment: no locking until another thread can see us.
+    private boolean shared = false;
+
+    LoxArray(int capacity) {
+        numbers = new double[Math.max(capacity, MIN_CAPACITY)];
+    }
+
+    int length() {
+        if (!shared) return size;
+
+        synchronized (this) {
+            return size;
+        }
+    }
+
+    Object get(Token bracket, Object index) {
+        if (!shared) return element(checkIndex(bracket, index, size));
+
+        synchronized (this) {
+            return element(checkIndex(bracket, index, size));
+        }
+    }
+
+    void set(Token bracket, Object index, Object value) {
+        if (!shared) {
+            store(checkIndex(bracket, index, size), value);
+            return;
+        }
+
+        Concurrency.publish(value);
+        synchronized (this) {
+            store(checkIndex(bracket, index, size), value);
+        }
+    }
+
+    void push(Object value) {
+        if (!shared) {
+            append(value);
+            return;
+        }
+
+        Concurrency.publish(value);
+        synchronized (this) {
+            append(value);
+        }
+    }
+
+    // Removes and returns the last element, nil if the array is empty.
+    Object pop() {
+        if (!shared) return removeLast();
+
+        synchronized (this) {
+            return removeLast();
+        }
+    }
+
+    void publish(Deque<Object> pending) {
+        if (shared) return;
+
+        synchronized (this) {
+            shared = true;
+            if (objects != null) {
+                for (int i = 0; i < size; i++) Concurrency.push(pending, objects[i]);
+            }
+        }
+    }
+
+    private Object element(int index) {
+        if (numbers != null) return numbers[index];
+        return objects[index];
+    }
+
+    private void store(int index, Object value) {
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double)value;
+                return;
+            }
+            generalize();
+        }
+
+        objects[index] = value;
+    }
+
+    private void append(Object value) {
+        int capacity = numbers != null ? numbers.length : objects.length;
+        if (size == capacity) {
+            if (numbers != null) {
+                numbers = Arrays.copyOf(numbers, capacity * 2);
+            } else {
+                objects = Arrays.copyOf(objects, capacity * 2);
+            }
+        }
+
+        size++;
+        store(size - 1, value);
+    }
+
+    private Object removeLast() {
+        if (size == 0) return null;
+
+        Object value = element(size - 1);
+        if (objects != null) objects[size - 1] = null;
+        size--;
+        return value;
+    }
+
+    // Boxes every element once when the first non-number shows up.
+    private void generalize() {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            objects[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private static int checkIndex(Token bracket, Object index, int size) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError(bracket, "Array index must be a number.");
+        }
+
+        double value = (double)index;
+        int i = (int)value;
+        if (i != value) {
+            throw new RuntimeError(bracket, "Array index must be an integer.");
+        }
+        if (i < 0 || i >= size) {
+            throw new RuntimeError(bracket, "Array index " + i + " out of bounds for length " + size + ".");
+        }
+
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        Object[] elements;
+        if (!shared) {
+            elements = elements();
+        } else {
+            // Copied under the lock, but formatted outside it so printing nested
+            // arrays never holds two locks at once.
+            synchronized (this) {
+                elements = elements();
+            }
+        }
+
+        Set<Object> printing = Interpreter.printing();
+        if (!printing.add(this)) return "[...]";
+
+        try {
+            StringBuilder text = new StringBuilder("[");
+            for (int i = 0; i < elements.length; i++) {
+                if (i > 0) text.append(", ");
+                text.append(Interpreter.stringify(elements[i]));
+            }
+
+            return text.append(']').toString();
+        } finally {
+            printing.remove(this);
+        }
+    }
+
+    private Object[] elements() {
+        Object[] elements = new Object[size];
+        for (int i = 0; i < size; i++) elements[i] = element(i);
+        return elements;
+    }
+}
@@ -1,8 +1,40 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface LoxCallable {
+    // Negative for callables that check their own argument count (like overloaded Java methods).
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // Fixed arity entry points used by the interpreter so a call doesn't have to
+    // collect its arguments into a list first. Callables that care about call
+    // overhead (Lox functions and classes) override them, everything else falls
+    // back to the list form.
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.ARGUMENTS, 16);
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.ARGUMENTS, 16 + MemoryStats.arrayBytes(2));
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.ARGUMENTS, 16 + MemoryStats.arrayBytes(3));
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
+
+    // For four or more arguments.
+    default Object call(Interpreter interpreter, Object[] arguments) {
+        if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.ARGUMENTS, 16);
+        return call(interpreter, Arrays.asList(arguments));
+    }
 }
@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Bounded FIFO channel between tasks. Blocking here parks a virtual thread instead of
+// tying up its carrier, which is why this uses a ReentrantLock and not synchronized.
+// Waits end at the run's time limit, see Budget.waitLimit().
+class LoxChannel {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // Ring buffer. Unlike the java.util.concurrent queues it can hold nil.
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    LoxChannel(int capacity) {
+        this.buffer = new Object[capacity];
+    }
+
+    void send(Object value, Budget budget) {
+        Concurrency.publish(value);
+
+        lock.lock();
+        try {
+            while (count == buffer.length && !closed) notFull.awaitNanos(budget.waitLimit());
+            if (closed) throw new RuntimeError("Can't send on a closed channel.");
+
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while sending.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns nil once the channel is closed and drained.
+    Object receive(Budget budget) {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) notEmpty.awaitNanos(budget.waitLimit());
+            if (count == 0) return null;
+
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while receiving.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -1,19 +1,28 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
+    // Every class made from the same declaration has the same methods, see Inline.
+    final Statement.Class declaration;
     private final Map<String, LoxFunction> methods;
 
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
-        this.name = name;
+    LoxClass(Statement.Class declaration, LoxClass superclass, Map<String, LoxFunction> methods) {
+        this.name = declaration.name.lexeme;
+        this.declaration = declaration;
         this.superclass = superclass;
         this.methods = methods;
     }
 
+    // Declared in this class itself, not inherited.
+    boolean declares(String name) {
+        return methods.containsKey(name);
+    }
+
     LoxFunction findMethod(String name) {
         if (methods.containsKey(name)) {
             return methods.get(name);
@@ -27,6 +36,12 @@ class LoxClass implements LoxCallable {
         return null;
     }
 
+    // Methods close over the environment the class was declared in.
+    void publish(Deque<Object> pending) {
+        for (LoxFunction method : methods.values()) Concurrency.push(pending, method);
+        Concurrency.push(pending, superclass);
+    }
+
     @Override
     public String toString() {
         return name;
@@ -44,6 +59,56 @@ class LoxClass implements LoxCallable {
         return instance;
     }
 
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) initializer.bind(instance).call0(interpreter);
+
+        return instance;
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = new LoxInstance(this);
+
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) initializer.bind(instance).call1(interpreter, a);
+
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) initializer.bind(instance).call2(interpreter, a, b);
+
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = new LoxInstance(this);
+
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) initializer.bind(instance).call3(interpreter, a, b, c);
+
+        return instance;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        LoxInstance instance = new LoxInstance(this);
+
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) initializer.bind(instance).call(interpreter, arguments);
+
+        return instance;
+    }
+
     @Override
     public int arity() {
         LoxFunction initializer = findMethod("init");
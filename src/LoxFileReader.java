@@ -0,0 +1,114 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Reads a file one record (a line, or whatever the delimiter splits on) at a time.
+//
+// The file is memory-mapped a window at a time instead of being read into the heap,
+// so the only heap memory a read costs is the record itself. Windows that have
+// been moved past are unmapped whenever the GC collects their buffers.
+class LoxFileReader implements Closeable {
+    private static final long WINDOW = 1L << 26;
+
+    final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final byte delimiter;
+
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private long position = 0; // start of the next record in the file
+    private byte[] scratch = new byte[256];
+    private boolean closed = false;
+
+    // A task can hand the reader to another one, so reads take a lock.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    LoxFileReader(Path path, byte delimiter) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.delimiter = delimiter;
+    }
+
+    // The next record without its delimiter, nil at the end of the file. A line
+    // loses its "\r" too when the file has Windows line endings.
+    LoxString next() throws IOException {
+        lock.lock();
+        try {
+            if (closed) throw new RuntimeError("Can't read from a closed file.");
+            if (position >= size) return null;
+
+            long end = find();
+            int length = (int)(end - position);
+            int offset = (int)(position - windowStart);
+            position = end + 1;
+
+            if (delimiter == '\n' && length > 0 && window.get(offset + length - 1) == '\r') length--;
+
+            if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            window.get(offset, scratch, 0, length);
+            return LoxString.of(new String(scratch, 0, length, StandardCharsets.UTF_8));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            window = null;
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // File offset of the delimiter that ends the record at position, or the file
+    // size if the last record doesn't have one. Leaves the whole record mapped.
+    private long find() throws IOException {
+        if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+            map(WINDOW);
+        }
+
+        int i = (int)(position - windowStart);
+        while (true) {
+            int limit = window.limit();
+            for (; i < limit; i++) {
+                if (window.get(i) == delimiter) return windowStart + i;
+            }
+
+            long scanned = windowStart + limit;
+            if (scanned >= size) return size;
+
+            // The record runs past the end of the window. Map again from the start of
+            // the record so it can be copied out in one piece.
+            if (scanned - position >= Integer.MAX_VALUE) {
+                throw new RuntimeError("Record in '" + path + "' is too long.");
+            }
+
+            map(Math.max(WINDOW, 2 * (scanned - position)));
+            i = (int)(scanned - windowStart);
+        }
+    }
+
+    private void map(long length) throws IOException {
+        length = Math.min(Math.min(length, size - position), Integer.MAX_VALUE);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        windowStart = position;
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+}
@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Buffered UTF-8 file output. Values are written the way print shows them.
+class LoxFileWriter implements Closeable {
+    final Path path;
+    private final OutputBuffer buffer;
+    private volatile boolean closed = false;
+
+    LoxFileWriter(Path path) throws IOException {
+        this.path = path;
+        this.buffer = new OutputBuffer(
+                new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8),
+                OutputBuffer.DEFAULT_SIZE);
+    }
+
+    void write(Object value) {
+        if (closed) throw new RuntimeError("Can't write to a closed file.");
+        buffer.print(value);
+    }
+
+    void writeLine(Object value) {
+        if (closed) throw new RuntimeError("Can't write to a closed file.");
+        buffer.println(value);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        buffer.close();
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+}
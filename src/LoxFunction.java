@@ -3,13 +3,24 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final Statement.Function declaration;
-    private final Environment closure;
-    private final boolean isInitializer;
+    final Statement.Function declaration;
+    final Environment closure;
+    // Globals of the module (or main script) the function was declared in.
+    final GlobalEnvironment globals;
+    final boolean isInitializer;
 
-    LoxFunction(Statement.Function declaration, Environment closure, boolean isInitializer) {
+    // Cached results, made on the first call if the body is pure or by memoize().
+    volatile Memo memo;
+
+    // Last interpreter that merged the side table of a lazily parsed body, to skip
+    // asking it again on every call.
+    private Interpreter resolvedIn;
+
+    LoxFunction(Statement.Function declaration, Environment closure, GlobalEnvironment globals,
+                boolean isInitializer) {
         this.declaration = declaration;
         this.closure = closure;
+        this.globals = globals;
         this.isInitializer = isInitializer;
     }
 
@@ -44,9 +55,11 @@ class LoxFunction implements LoxCallable {
     // Surely it would make more sense to create one environment for the class instance and bind
     // all methods to it.
     LoxFunction bind(LoxInstance instance) {
+        if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.BOUND_METHOD);
+
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, environment, globals, isInitializer);
     }
 
     @Override
@@ -61,18 +74,179 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (memoizes()) return memoized(interpreter, arguments.toArray());
+
+        Ir.Function ir = ir(interpreter);
+        if (ir != null) return run(interpreter, ir, arguments.toArray());
+
         Environment environment = new Environment(closure);
 
         for (int i = 0; i < declaration.params.size(); i++) {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
 
+        return execute(interpreter, environment);
+    }
+
+    // The fixed arity versions write the arguments straight into the new frame.
+    @Override
+    public Object call0(Interpreter interpreter) {
+        if (memoizes()) return memoized(interpreter, new Object[0]);
+
+        Ir.Function ir = ir(interpreter);
+        if (ir != null) return run(interpreter, ir, new Object[0]);
+
+        return execute(interpreter, new Environment(closure));
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        if (memoizes()) return memoized(interpreter, new Object[] { a });
+
+        Ir.Function ir = ir(interpreter);
+        if (ir != null) return run(interpreter, ir, new Object[] { a });
+
+        Environment environment = new Environment(closure);
+        environment.define(declaration.params.get(0).lexeme, a);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        if (memoizes()) return memoized(interpreter, new Object[] { a, b });
+
+        Ir.Function ir = ir(interpreter);
+        if (ir != null) return run(interpreter, ir, new Object[] { a, b });
+
+        Environment environment = new Environment(closure);
+        environment.define(declaration.params.get(0).lexeme, a);
+        environment.define(declaration.params.get(1).lexeme, b);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        if (memoizes()) return memoized(interpreter, new Object[] { a, b, c });
+
+        Ir.Function ir = ir(interpreter);
+        if (ir != null) return run(interpreter, ir, new Object[] { a, b, c });
+
+        Environment environment = new Environment(closure);
+        environment.define(declaration.params.get(0).lexeme, a);
+        environment.define(declaration.params.get(1).lexeme, b);
+        environment.define(declaration.params.get(2).lexeme, c);
+        return execute(interpreter, environment);
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        if (memoizes()) return memoized(interpreter, arguments);
+
+        return invoke(interpreter, arguments);
+    }
+
+    private Object invoke(Interpreter interpreter, Object[] arguments) {
+        Ir.Function ir = ir(interpreter);
+        if (ir != null) return run(interpreter, ir, arguments);
+
+        Environment environment = new Environment(closure);
+
+        for (int i = 0; i < arguments.length; i++) {
+            environment.define(declaration.params.get(i).lexeme, arguments[i]);
+        }
+
+        return execute(interpreter, environment);
+    }
+
+    private boolean memoizes() {
+        return declaration.pureCalls != null || memo != null;
+    }
+
+    synchronized Memo memo() {
+        if (memo == null) memo = new Memo();
+        return memo;
+    }
+
+    // See Memo. Errors aren't cached, the next call runs the body again.
+    private Object memoized(Interpreter interpreter, Object[] arguments) {
+        Object key = Memo.key(arguments);
+        if (key == Memo.NO_KEY) return invoke(interpreter, arguments);
+
+        Memo memo = this.memo;
+        if (memo == null) memo = memo();
+        if (!memo.usable(this)) return invoke(interpreter, arguments);
+
+        Object result = memo.lookup(key);
+        if (result != Memo.MISSING) return result;
+
+        result = invoke(interpreter, arguments);
+        memo.store(this, key, result);
+        return result;
+    }
+
+    // The body if it's been parsed, null for a lazy body that hasn't been called yet.
+    List<Statement> compiledBody() {
+        if (declaration.body != null) return declaration.body;
+        return declaration.lazy.compiled();
+    }
+
+    private List<Statement> body(Interpreter interpreter) {
+        if (declaration.body != null) return declaration.body;
+
+        List<Statement> body = declaration.lazy.body(declaration);
+        if (resolvedIn != interpreter) {
+            interpreter.resolve(declaration.lazy);
+            resolvedIn = interpreter;
+        }
+
+        return body;
+    }
+
+    // With IR enabled, the optimized IR of the body if it can be lowered. Initializers
+    // stay on the tree, they return "this" from the closure.
+    private Ir.Function ir(Interpreter interpreter) {
+        if (!interpreter.isolate.irEnabled || isInitializer) return null;
+        return Ir.compile(declaration, body(interpreter));
+    }
+
+    private Object run(Interpreter interpreter, Ir.Function ir, Object[] arguments) {
+        if (MemoryStats.enabled) MemoryStats.enter(declaration.name.lexeme);
+
+        GlobalEnvironment callerGlobals = interpreter.globals;
+        interpreter.globals = globals;
+
+        try {
+            interpreter.enter(declaration);
+            return IrInterpreter.run(ir, interpreter, arguments);
+        } catch (RuntimeError error) {
+            throw error.locate(globals.file);
+        } finally {
+            interpreter.depth--;
+            interpreter.globals = callerGlobals;
+            if (MemoryStats.enabled) MemoryStats.exit();
+        }
+    }
+
+    private Object execute(Interpreter interpreter, Environment environment) {
+        if (MemoryStats.enabled) MemoryStats.enter(declaration.name.lexeme);
+
+        // Globals in the body are the ones of the file it was declared in.
+        GlobalEnvironment callerGlobals = interpreter.globals;
+        interpreter.globals = globals;
+
         try {
-            interpreter.executeBlock(declaration.body, environment);
+            interpreter.enter(declaration);
+            interpreter.executeBlock(body(interpreter), environment);
         } catch (Return returnValue) {
             if (isInitializer) return closure.getAt(0, "this");
 
             return returnValue.value;
+        } catch (RuntimeError error) {
+            throw error.locate(globals.file);
+        } finally {
+            interpreter.depth--;
+            interpreter.globals = callerGlobals;
+            if (MemoryStats.enabled) MemoryStats.exit();
         }
 
         if (isInitializer) return closure.getAt(0, "this");
@@ -1,20 +1,26 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
+    private static final Object UNDEFINED = new Object();
+
     private LoxClass klass;
     private final Map<String, Object> fields = new HashMap<>();
 
+    // Same confinement scheme as Environment: no locking until another thread can see us.
+    private boolean shared = false;
+
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        if (MemoryStats.enabled) MemoryStats.record(MemoryStats.Kind.INSTANCE);
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+        Object value = field(name.lexeme);
+        if (value != UNDEFINED) return value;
 
         LoxFunction method = klass.findMethod(name.lexeme);
         if (method != null) return method.bind(this);
@@ -22,8 +28,43 @@ class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
+    LoxClass klass() {
+        return klass;
+    }
+
+    boolean hasField(String name) {
+        return field(name) != UNDEFINED;
+    }
+
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        if (!shared) {
+            fields.put(name.lexeme, value);
+            return;
+        }
+
+        Concurrency.publish(value);
+        synchronized (this) {
+            fields.put(name.lexeme, value);
+        }
+    }
+
+    void publish(Deque<Object> pending) {
+        if (shared) return;
+
+        synchronized (this) {
+            shared = true;
+            for (Object value : fields.values()) Concurrency.push(pending, value);
+        }
+
+        Concurrency.push(pending, klass);
+    }
+
+    private Object field(String name) {
+        if (!shared) return fields.getOrDefault(name, UNDEFINED);
+
+        synchronized (this) {
+            return fields.getOrDefault(name, UNDEFINED);
+        }
     }
 
     @Override
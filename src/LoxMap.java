@@ -0,0 +1,300 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Deque;
+import java.util.Set;
+
+// Hash map for Lox values, created with map() and used as m[key] / m[key] = value.
+//
+// Open addressing with linear probing over flat parallel arrays, so an entry costs a
+// few array slots instead of a HashMap.Node. Number keys are the common case for
+// lookup tables and are stored unboxed in numberKeys (the key slot only holds a
+// marker), string keys use the hash LoxString caches. Any other non-nil value is a
+// key by equality, which for instances and functions means identity.
+class LoxMap {
+    private static final int MIN_CAPACITY = 8;
+
+    // Stored hashes always have their low bit set, so these can't be confused with one.
+    private static final int EMPTY = 0;
+    private static final int DELETED = 2;
+
+    // Key slot marker for entries whose key lives in numberKeys.
+    private static final Object NUMBER = new Object();
+
+    private int[] hashes;
+    private Object[] keys;
+    private double[] numberKeys;
+    private Object[] values;
+    private int size;
+    private int used; // live entries plus tombstones
+
+    // Same confinement scheme as Environment: no locking until another thread can see us.
+    private boolean shared = false;
+
+    LoxMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int length() {
+        if (!shared) return size;
+
+        synchronized (this) {
+            return size;
+        }
+    }
+
+    // nil for missing keys.
+    Object get(Token bracket, Object key) {
+        if (!shared) return lookup(bracket, key);
+
+        synchronized (this) {
+            return lookup(bracket, key);
+        }
+    }
+
+    void set(Token bracket, Object key, Object value) {
+        if (!shared) {
+            insert(bracket, key, value);
+            return;
+        }
+
+        Concurrency.publish(key);
+        Concurrency.publish(value);
+        synchronized (this) {
+            insert(bracket, key, value);
+        }
+    }
+
+    boolean has(Token bracket, Object key) {
+        if (!shared) return slot(bracket, key) >= 0;
+
+        synchronized (this) {
+            return slot(bracket, key) >= 0;
+        }
+    }
+
+    // Returns the removed value, nil if the key wasn't there.
+    Object remove(Token bracket, Object key) {
+        if (!shared) return delete(bracket, key);
+
+        synchronized (this) {
+            return delete(bracket, key);
+        }
+    }
+
+    LoxArray keys() {
+        if (!shared) return collectKeys();
+
+        synchronized (this) {
+            return collectKeys();
+        }
+    }
+
+    void publish(Deque<Object> pending) {
+        if (shared) return;
+
+        synchronized (this) {
+            shared = true;
+            for (int i = 0; i < hashes.length; i++) {
+                if ((hashes[i] & 1) == 0) continue;
+                Concurrency.push(pending, keys[i]);
+                Concurrency.push(pending, values[i]);
+            }
+        }
+    }
+
+    private Object lookup(Token bracket, Object key) {
+        int slot = slot(bracket, key);
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    private Object delete(Token bracket, Object key) {
+        int slot = slot(bracket, key);
+        if (slot < 0) return null;
+
+        Object value = values[slot];
+        hashes[slot] = DELETED;
+        keys[slot] = null;
+        values[slot] = null;
+        size--;
+        return value;
+    }
+
+    private void insert(Token bracket, Object key, Object value) {
+        int hash = hash(bracket, key);
+        int mask = hashes.length - 1;
+        int index = (hash >>> 1) & mask;
+        int tombstone = -1;
+
+        for (;;) {
+            int stored = hashes[index];
+            if (stored == EMPTY) break;
+
+            if (stored == DELETED) {
+                if (tombstone < 0) tombstone = index;
+            } else if (stored == hash && matches(index, key)) {
+                values[index] = value;
+                return;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        if (tombstone >= 0) {
+            index = tombstone;
+        } else {
+            if (used + 1 > hashes.length * 3 / 4) {
+                rehash();
+                insert(bracket, key, value);
+                return;
+            }
+            used++;
+        }
+
+        hashes[index] = hash;
+        values[index] = value;
+        if (key instanceof Double) {
+            if (numberKeys == null) numberKeys = new double[hashes.length];
+            numberKeys[index] = (double)key;
+            keys[index] = NUMBER;
+        } else {
+            keys[index] = key;
+        }
+        size++;
+    }
+
+    // Index of the key's entry, or -1.
+    private int slot(Token bracket, Object key) {
+        int hash = hash(bracket, key);
+        int mask = hashes.length - 1;
+        int index = (hash >>> 1) & mask;
+
+        for (;;) {
+            int stored = hashes[index];
+            if (stored == EMPTY) return -1;
+            if (stored == hash && matches(index, key)) return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    private boolean matches(int index, Object key) {
+        Object stored = keys[index];
+        if (key instanceof Double) {
+            // Same equality as Double.equals(), which is what == uses on numbers.
+            return stored == NUMBER &&
+                    Double.doubleToLongBits(numberKeys[index]) == Double.doubleToLongBits((double)key);
+        }
+
+        return stored != NUMBER && (stored == key || stored.equals(key));
+    }
+
+    private static int hash(Token bracket, Object key) {
+        if (key == null) throw new RuntimeError(bracket, "Map keys can't be nil.");
+
+        int h;
+        if (key instanceof Double) {
+            long bits = Double.doubleToLongBits((double)key);
+            h = (int)(bits ^ (bits >>> 32));
+        } else {
+            h = key.hashCode();
+        }
+
+        // Sequential numbers would otherwise land in one long probe run.
+        h *= 0x9E3779B9;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+
+    private void rehash() {
+        int[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        double[] oldNumberKeys = numberKeys;
+        Object[] oldValues = values;
+        int live = size;
+
+        // Only grow if the table is really full. If it's mostly tombstones, clearing them is enough.
+        int capacity = live + 1 > oldHashes.length / 2 ? oldHashes.length * 2 : oldHashes.length;
+        allocate(capacity);
+        if (oldNumberKeys != null) numberKeys = new double[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldHashes.length; i++) {
+            int hash = oldHashes[i];
+            if ((hash & 1) == 0) continue;
+
+            int index = (hash >>> 1) & mask;
+            while (hashes[index] != EMPTY) index = (index + 1) & mask;
+
+            hashes[index] = hash;
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+            if (oldKeys[i] == NUMBER) numberKeys[index] = oldNumberKeys[i];
+        }
+
+        size = live;
+        used = live;
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        numberKeys = null;
+        size = 0;
+        used = 0;
+    }
+
+    private Object key(int index) {
+        return keys[index] == NUMBER ? (Object)numberKeys[index] : keys[index];
+    }
+
+    private LoxArray collectKeys() {
+        LoxArray array = new LoxArray(size);
+        for (int i = 0; i < hashes.length; i++) {
+            if ((hashes[i] & 1) != 0) array.push(key(i));
+        }
+
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        Object[] entries;
+        if (!shared) {
+            entries = entries();
+        } else {
+            // Like LoxArray, copied under the lock and formatted outside it, since
+            // stringify() can end up taking the lock of a nested array or map.
+            synchronized (this) {
+                entries = entries();
+            }
+        }
+
+        Set<Object> printing = Interpreter.printing();
+        if (!printing.add(this)) return "{...}";
+
+        try {
+            StringBuilder text = new StringBuilder("{");
+            for (int i = 0; i < entries.length; i += 2) {
+                if (i > 0) text.append(", ");
+                text.append(Interpreter.stringify(entries[i])).append(": ").append(Interpreter.stringify(entries[i + 1]));
+            }
+
+            return text.append('}').toString();
+        } finally {
+            printing.remove(this);
+        }
+    }
+
+    // Keys and values, alternating.
+    private Object[] entries() {
+        Object[] entries = new Object[size * 2];
+        int next = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if ((hashes[i] & 1) == 0) continue;
+            entries[next++] = key(i);
+            entries[next++] = values[i];
+        }
+
+        return entries;
+    }
+}
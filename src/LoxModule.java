@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.Path;
+
+// What an import binds its name to: the top level of another file. The module's
+// globals live in their own GlobalEnvironment, so they can't clash with the
+// importer's, and are read as properties ("name.member").
+class LoxModule {
+    final Path path;
+    final GlobalEnvironment globals;
+
+    // False while the module's top level is still running, to catch import cycles.
+    boolean loaded = false;
+
+    LoxModule(Path path, GlobalEnvironment globals) {
+        this.path = path;
+        this.globals = globals;
+    }
+
+    Object get(Token name) {
+        Object value = globals.lookup(name.lexeme);
+        if (value != Environment.UNDEFINED) return value;
+
+        throw new RuntimeError(name, "Undefined property '" + name.lexeme + "' in module '" +
+                path.getFileName() + "'.");
+    }
+
+    @Override
+    public String toString() {
+        return "<module " + path.getFileName() + ">";
+    }
+}
@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+// Lox behind the javax.script API. Compile once with compile(), then call eval() on
+// the CompiledScript per request. Every eval runs in a new Isolate whose globals are
+// copied in from the ENGINE_SCOPE bindings of the context, and the globals the script
+// defines or assigns are copied back as Java values. So passing fresh bindings gives
+// a fresh global scope and reusing bindings shares globals between runs. Nothing locks
+// the bindings while that happens, so concurrent evals need bindings of their own.
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+    private final LoxScriptEngineFactory factory;
+    private volatile boolean fileAccess = false;
+
+    LoxScriptEngine(LoxScriptEngineFactory factory) {
+        this.factory = factory;
+    }
+
+    // Lets scripts run by this engine use the file natives, see Isolate.allowFileAccess().
+    public void setFileAccess(boolean allowed) {
+        fileAccess = allowed;
+    }
+
+    @Override
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return compile(script, context).eval(context);
+    }
+
+    @Override
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return eval(readFully(reader), context);
+    }
+
+    @Override
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(script, getContext());
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return compile(readFully(script));
+    }
+
+    private CompiledScript compile(String script, ScriptContext context) throws ScriptException {
+        // Errors are collected instead of printed, the first one becomes the exception.
+        ErrorReporter errors = new ErrorReporter(new PrintWriter(Writer.nullWriter()));
+        Program program = Program.compile(script, errors, false);
+        if (program == null) {
+            throw new ScriptException(errors.messages().get(0), fileName(context), -1);
+        }
+
+        return new LoxCompiledScript(this, program);
+    }
+
+    @Override
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    @Override
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    static String fileName(ScriptContext context) {
+        Object name = context.getAttribute(ScriptEngine.FILENAME);
+        return name == null ? "<eval>" : name.toString();
+    }
+
+    private static String readFully(Reader reader) throws ScriptException {
+        StringWriter source = new StringWriter();
+        try {
+            reader.transferTo(source);
+        } catch (IOException error) {
+            throw new ScriptException(error);
+        }
+
+        return source.toString();
+    }
+
+    private static class LoxCompiledScript extends CompiledScript {
+        private final LoxScriptEngine engine;
+        private final Program program;
+
+        LoxCompiledScript(LoxScriptEngine engine, Program program) {
+            this.engine = engine;
+            this.program = program;
+        }
+
+        @Override
+        public Object eval(ScriptContext context) throws ScriptException {
+            Bindings globals = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            Isolate isolate = new Isolate(context.getWriter(), context.getErrorWriter(), globals);
+            if (engine.fileAccess) isolate.allowFileAccess();
+
+            try {
+                isolate.execute(program, false);
+            } catch (RuntimeError error) {
+                String file = error.file == null ? fileName(context) : error.file.toString();
+                throw new ScriptException(error.getMessage(), file, error.token == null ? -1 : error.token.line);
+            }
+
+            // Lox scripts are statements, there's no completion value to hand back.
+            return null;
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+    }
+}
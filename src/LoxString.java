@@ -0,0 +1,136 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Runtime representation of Lox strings.
+//
+// Concatenation doesn't copy: past a small size it builds a rope node pointing at
+// both halves, so "s = s + piece" in a loop is linear instead of quadratic. The text
+// is only put together (flattened) when someone needs it as a whole, like print or
+// an equality check, and the result is kept so that happens once per string.
+//
+// String literals are interned by the scanner. Two interned strings are equal
+// exactly when they're the same object, so comparing them never looks at the text.
+final class LoxString {
+    // Short results are cheaper to copy than to keep as a rope.
+    private static final int MIN_ROPE_LENGTH = 32;
+
+    // Literals from every script compiled in this process end up here, so stop
+    // interning at some point instead of growing forever.
+    private static final int MAX_INTERNED = 1 << 16;
+    private static final ConcurrentHashMap<String, LoxString> interned = new ConcurrentHashMap<>();
+
+    static final LoxString EMPTY = intern("");
+
+    private final int length;
+    private final boolean isInterned;
+
+    // Either flat is set, or left and right are. Flattening sets flat and then drops the
+    // halves. Both are volatile so a thread that sees the halves gone also sees flat.
+    private volatile String flat;
+    private volatile LoxString left;
+    private volatile LoxString right;
+
+    // Cached like String.hashCode(), 0 means not computed yet.
+    private int hash;
+
+    private LoxString(String flat, boolean isInterned) {
+        this.flat = flat;
+        this.length = flat.length();
+        this.isInterned = isInterned;
+    }
+
+    private LoxString(LoxString left, LoxString right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length + right.length;
+        this.isInterned = false;
+    }
+
+    static LoxString of(String value) {
+        return new LoxString(value, false);
+    }
+
+    static LoxString intern(String value) {
+        LoxString string = interned.get(value);
+        if (string != null) return string;
+        if (interned.size() >= MAX_INTERNED) return of(value);
+
+        return interned.computeIfAbsent(value, text -> new LoxString(text, true));
+    }
+
+    static LoxString concat(LoxString a, LoxString b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+
+        if (a.length + b.length < MIN_ROPE_LENGTH) {
+            return new LoxString(a.toString().concat(b.toString()), false);
+        }
+
+        return new LoxString(a, b);
+    }
+
+    int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text != null) return text;
+
+        return flatten();
+    }
+
+    // Walks the rope iteratively, ropes built in a loop are as deep as they are long.
+    private String flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<LoxString> pending = new ArrayDeque<>();
+        pending.push(this);
+
+        while (!pending.isEmpty()) {
+            LoxString node = pending.pop();
+            LoxString l = node.left;
+            LoxString r = node.right;
+
+            if (l == null || r == null) {
+                builder.append(node.flat);
+            } else {
+                pending.push(r);
+                pending.push(l);
+            }
+        }
+
+        String text = builder.toString();
+        flat = text;
+        left = null;
+        right = null;
+        return text;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof LoxString)) return false;
+
+        LoxString other = (LoxString)object;
+        if (isInterned && other.isInterned) return false;
+        if (length != other.length) return false;
+        if (hash != 0 && other.hash != 0 && hash != other.hash) return false;
+
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = toString().hashCode();
+            hash = h;
+        }
+
+        return h;
+    }
+}
@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Handle for a function started with spawn(). It runs on its own virtual thread.
+class LoxTask {
+    private final FutureTask<Object> future;
+
+    LoxTask(FutureTask<Object> future) {
+        this.future = future;
+    }
+
+    // Waits for the task and returns what the function returned. The failure of a
+    // task has already been reported when it happened, here it just stops the joiner.
+    Object join(Budget budget) {
+        try {
+            return future.get(budget.waitLimit(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException error) {
+            throw budget.outOfTime(null);
+        } catch (CancellationException error) {
+            throw new RuntimeError("Spawned task was stopped.");
+        } catch (ExecutionException error) {
+            throw new RuntimeError("Spawned task failed: " + error.getCause().getMessage());
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError("Interrupted while waiting for a task.");
+        }
+    }
+
+    // Like join() but for the isolate waiting on stragglers, so failures are ignored.
+    // False if the task is still running after the given nanoseconds.
+    boolean await(long nanos) {
+        try {
+            future.get(nanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException error) {
+            return false;
+        } catch (ExecutionException | CancellationException ignored) {
+            // already reported, or stopped on purpose
+        } catch (InterruptedException error) {
+            Thread.currentThread().interrupt();
+        }
+
+        return true;
+    }
+
+    // Interrupts the task's thread. Whatever it's blocked in throws then.
+    void stop() {
+        future.cancel(true);
+    }
+
+    @Override
+    public String toString() {
+        return "<task>";
+    }
+}
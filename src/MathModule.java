@@ -0,0 +1,63 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+// sqrt, floor, ceil, round, abs, min, max, pow, sin, cos, tan, atan, atan2, exp,
+// log and random. Everything but round maps straight onto java.lang.Math.
+class MathModule implements NativeModule {
+    @Override
+    public void install(Environment globals) {
+        unary(globals, "sqrt", Math::sqrt);
+        unary(globals, "floor", Math::floor);
+        unary(globals, "ceil", Math::ceil);
+        unary(globals, "abs", Math::abs);
+        unary(globals, "sin", Math::sin);
+        unary(globals, "cos", Math::cos);
+        unary(globals, "tan", Math::tan);
+        unary(globals, "atan", Math::atan);
+        unary(globals, "exp", Math::exp);
+        unary(globals, "log", Math::log);
+        unary(globals, "round", MathModule::round);
+
+        binary(globals, "min", Math::min);
+        binary(globals, "max", Math::max);
+        binary(globals, "pow", Math::pow);
+        binary(globals, "atan2", Math::atan2);
+
+        globals.define("random", new NativeFunction.Nullary("random") {
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return ThreadLocalRandom.current().nextDouble();
+            }
+        });
+    }
+
+    // Halves round up, like Math.round(), which can't be used since it goes through
+    // long. floor(x + 0.5) is off for the double just below 0.5, where the addition
+    // rounds up to 1. x - floor(x) is exact, so comparing that is safe, and it keeps
+    // huge values, infinities and NaN as they are.
+    private static double round(double x) {
+        double floor = Math.floor(x);
+        return x - floor >= 0.5 ? floor + 1 : floor;
+    }
+
+    private static void unary(Environment globals, String name, DoubleUnaryOperator operator) {
+        globals.define(name, new NativeFunction.Unary(name) {
+            @Override
+            public Object call1(Interpreter interpreter, Object a) {
+                return operator.applyAsDouble(number(a));
+            }
+        });
+    }
+
+    private static void binary(Environment globals, String name, DoubleBinaryOperator operator) {
+        globals.define(name, new NativeFunction.Binary(name) {
+            @Override
+            public Object call2(Interpreter interpreter, Object a, Object b) {
+                return operator.applyAsDouble(number(a), number(b));
+            }
+        });
+    }
+}
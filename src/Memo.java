@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Results of a function's earlier calls, by arguments, so calling it again with the
+// same ones returns the result without running the body.
+//
+// That's only right for pure functions. The resolver marks the bodies that only read
+// their own locals, don't print or touch objects, arrays or closures, and only call
+// global functions by name (Statement.Function.pureCalls lists those globals). A
+// body being pure isn't enough though: whatever those globals are bound to right
+// now has to be pure too, all the way down. That's checked when the function is
+// called, and checked again (with the results thrown away) whenever a global holding
+// a function changes, see GlobalEnvironment.functionVersion().
+//
+// memoize() turns this on for any function. The script vouches for it then.
+//
+// Only calls whose arguments are numbers, strings, booleans or nil are cached, those
+// can't change under us. The table is an LRU with at most MAX_ENTRIES results.
+final class Memo {
+    static final int MAX_ENTRIES = 4096;
+
+    // Lookup result when there's nothing for the arguments.
+    static final Object MISSING = new Object();
+    // key() for arguments we don't cache.
+    static final Object NO_KEY = new Object();
+
+    // Set by memoize().
+    private volatile boolean explicit = false;
+
+    private final Map<Object, Object> results = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private long hits = 0;
+    private long misses = 0;
+
+    // What the check said, and the globals' version it's valid for.
+    private boolean usable = false;
+    private int version = -1;
+
+    static Object key(Object[] arguments) {
+        for (Object argument : arguments) {
+            boolean value = argument == null || argument instanceof Double ||
+                    argument instanceof Boolean || argument instanceof LoxString;
+            if (!value) return NO_KEY;
+        }
+
+        // The common case doesn't need a list.
+        if (arguments.length == 1) return arguments[0];
+        return Arrays.asList(arguments.clone());
+    }
+
+    // memoize(): cache the function's results whether it looks pure or not.
+    synchronized void vouch() {
+        explicit = true;
+        version = -1;
+    }
+
+    // Whether results can be reused (and stored) for this function right now.
+    synchronized boolean usable(LoxFunction function) {
+        int current = function.globals.functionVersion();
+        if (current != version) {
+            results.clear();
+            usable = explicit || isPure(function, new HashSet<Statement.Function>());
+            version = current;
+        }
+
+        return usable;
+    }
+
+    synchronized Object lookup(Object key) {
+        Object result = results.getOrDefault(key, MISSING);
+        if (result == MISSING) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return result;
+    }
+
+    synchronized void store(LoxFunction function, Object key, Object result) {
+        // A function memoize() vouched for could have rebound a global while it ran.
+        if (function.globals.functionVersion() != version) return;
+        results.put(key, result);
+    }
+
+    synchronized long hits() {
+        return hits;
+    }
+
+    synchronized long misses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return results.size();
+    }
+
+    // The function's body is pure, and so are the functions its globals hold. seen
+    // cuts off recursion, a function is pure if the rest of the cycle is.
+    private static boolean isPure(LoxFunction function, Set<Statement.Function> seen) {
+        Memo memo = function.memo;
+        if (memo != null && memo.explicit) return true;
+
+        int[] calls = function.declaration.pureCalls;
+        if (calls == null) return false;
+        if (!seen.add(function.declaration)) return true;
+
+        for (int slot : calls) {
+            Object callee = function.globals.read(slot);
+            if (!(callee instanceof LoxFunction)) return false;
+
+            // Its globals are the ones the version is about, so they have to be ours.
+            LoxFunction next = (LoxFunction)callee;
+            if (next.globals != function.globals || !isPure(next, seen)) return false;
+        }
+
+        return true;
+    }
+}
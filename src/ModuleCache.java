@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Compiled modules, shared by every isolate in the process. A module file is
+// scanned, parsed and resolved once and the Program is reused for as long as the
+// file's content stays the same.
+//
+// An import first compares the file's size and modification time with what they
+// were when it was compiled, so an unchanged file isn't even read. If they differ
+// the file is read and hashed, and only recompiled if the content really changed.
+final class ModuleCache {
+    private static final class Entry {
+        long size;
+        FileTime modified;
+        byte[] hash;
+        Program program;
+    }
+
+    private static final ConcurrentHashMap<Path, Entry> entries = new ConcurrentHashMap<>();
+
+    private ModuleCache() {}
+
+    // Null if the module has compile errors, they've been reported to errors. Those
+    // aren't cached, fixing the file is a change like any other.
+    static Program compile(Path file, ErrorReporter errors, boolean lazy) throws IOException {
+        Entry entry = entries.computeIfAbsent(file, path -> new Entry());
+
+        // Per file, so two isolates importing the same module compile it once
+        // while different modules still compile in parallel.
+        synchronized (entry) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (entry.program != null && attributes.size() == entry.size &&
+                    attributes.lastModifiedTime().equals(entry.modified)) {
+                return entry.program;
+            }
+
+            byte[] bytes = Files.readAllBytes(file);
+            byte[] hash = hash(bytes);
+
+            if (entry.program == null || !Arrays.equals(hash, entry.hash)) {
+                String source = new String(bytes, Charset.defaultCharset());
+                Program program = Program.compile(source, errors, lazy, file.getParent());
+                if (program == null) return null;
+
+                entry.program = program;
+                entry.hash = hash;
+            }
+
+            entry.size = attributes.size();
+            entry.modified = attributes.lastModifiedTime();
+            return entry.program;
+        }
+    }
+
+    // The cached Program if the file is unchanged (same size and modification time)
+    // since it was compiled, otherwise null.
+    static Program current(Path file, BasicFileAttributes attributes) {
+        Entry entry = entries.get(file);
+        if (entry == null) return null;
+
+        synchronized (entry) {
+            if (entry.program != null && attributes.size() == entry.size &&
+                    attributes.lastModifiedTime().equals(entry.modified)) {
+                return entry.program;
+            }
+
+            return null;
+        }
+    }
+
+    // For a Program compiled somewhere else (see ProjectLoader) from the given bytes.
+    static void store(Path file, BasicFileAttributes attributes, byte[] bytes, Program program) {
+        Entry entry = entries.computeIfAbsent(file, path -> new Entry());
+
+        synchronized (entry) {
+            entry.program = program;
+            entry.hash = hash(bytes);
+            entry.size = attributes.size();
+            entry.modified = attributes.lastModifiedTime();
+        }
+    }
+
+    private static byte[] hash(byte[] bytes) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException error) {
+            // every JRE has SHA-256
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Base class for functions implemented in Java.
+//
+// The nested Nullary/Unary/Binary/Ternary classes are for natives with a fixed
+// argument count. They implement the matching callN() entry point that the
+// interpreter calls directly, so calling them doesn't build an argument list.
+abstract class NativeFunction implements LoxCallable {
+    final String name;
+    private final int arity;
+
+    NativeFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+
+    abstract static class Nullary extends NativeFunction {
+        Nullary(String name) {
+            super(name, 0);
+        }
+
+        @Override
+        public abstract Object call0(Interpreter interpreter);
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call0(interpreter);
+        }
+    }
+
+    abstract static class Unary extends NativeFunction {
+        Unary(String name) {
+            super(name, 1);
+        }
+
+        @Override
+        public abstract Object call1(Interpreter interpreter, Object a);
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call1(interpreter, arguments.get(0));
+        }
+    }
+
+    abstract static class Binary extends NativeFunction {
+        Binary(String name) {
+            super(name, 2);
+        }
+
+        @Override
+        public abstract Object call2(Interpreter interpreter, Object a, Object b);
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call2(interpreter, arguments.get(0), arguments.get(1));
+        }
+    }
+
+    abstract static class Ternary extends NativeFunction {
+        Ternary(String name) {
+            super(name, 3);
+        }
+
+        @Override
+        public abstract Object call3(Interpreter interpreter, Object a, Object b, Object c);
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return call3(interpreter, arguments.get(0), arguments.get(1), arguments.get(2));
+        }
+    }
+
+    // Argument checks shared by the modules. The messages name the native so the
+    // error at the call site says what went wrong.
+
+    double number(Object value) {
+        if (value instanceof Double) return (double)value;
+        throw new RuntimeError("Argument to '" + name + "' must be a number.");
+    }
+
+    int integer(Object value) {
+        double number = number(value);
+        int integer = (int)number;
+        if (integer != number) {
+            throw new RuntimeError("Argument to '" + name + "' must be an integer.");
+        }
+
+        return integer;
+    }
+
+    LoxString string(Object value) {
+        if (value instanceof LoxString) return (LoxString)value;
+        throw new RuntimeError("Argument to '" + name + "' must be a string.");
+    }
+
+    LoxArray array(Object value) {
+        if (value instanceof LoxArray) return (LoxArray)value;
+        throw new RuntimeError("Argument to '" + name + "' must be an array.");
+    }
+
+    LoxMap map(Object value) {
+        if (value instanceof LoxMap) return (LoxMap)value;
+        throw new RuntimeError("Argument to '" + name + "' must be a map.");
+    }
+
+    // A function the native is going to call with the given number of arguments.
+    LoxCallable callback(Object value, int arguments) {
+        if (!(value instanceof LoxCallable)) {
+            throw new RuntimeError("Argument to '" + name + "' must be a function.");
+        }
+
+        LoxCallable callable = (LoxCallable)value;
+        if (callable.arity() >= 0 && callable.arity() != arguments) {
+            throw new RuntimeError("Function passed to '" + name + "' must take " + arguments +
+                    (arguments == 1 ? " argument." : " arguments."));
+        }
+
+        return callable;
+    }
+}
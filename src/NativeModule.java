@@ -0,0 +1,29 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A group of related natives. Every interpreter's globals get the STANDARD ones.
+// FILES lets a script read and write any file the process can, so it's only there
+// when the embedder allows it, see Isolate.allowFileAccess().
+interface NativeModule {
+    List<NativeModule> STANDARD = List.of(
+        new CoreModule(),
+        new MathModule(),
+        new StringModule(),
+        new CollectionModule(),
+        new ConcurrencyModule(),
+        new TimerModule()
+    );
+
+    NativeModule FILES = new IoModule();
+
+    void install(Environment globals);
+
+    static void installAll(Environment globals, boolean files) {
+        for (NativeModule module : STANDARD) {
+            module.install(globals);
+        }
+
+        if (files) FILES.install(globals);
+    }
+}
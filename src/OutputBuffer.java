@@ -0,0 +1,151 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Where print goes. Output collects in a large char buffer and only reaches the
+// underlying writer when the buffer fills up, when a run ends, before a runtime
+// error is reported and when the script calls flush(). Numbers are formatted
+// straight into the buffer.
+//
+// Spawned tasks print too, so every operation takes the lock. It's a ReentrantLock
+// because a flush can block on I/O and that shouldn't pin a virtual thread.
+class OutputBuffer {
+    static final int DEFAULT_SIZE = 1 << 16;
+
+    // Integral doubles below this print without a fraction or exponent (see stringify).
+    private static final double PLAIN_LIMIT = 1e7;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final Writer writer;
+    private final char[] buffer;
+    private final boolean autoFlush;
+    private int count = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // A size of 0 writes every print through right away, for interactive use.
+    OutputBuffer(Writer writer, int size) {
+        this.writer = writer;
+        this.buffer = new char[Math.max(size, 64)];
+        this.autoFlush = size == 0;
+    }
+
+    // The print statement: the value as stringify() would show it, then a line break.
+    void println(Object value) {
+        lock.lock();
+        try {
+            appendValue(value);
+            append(LINE_SEPARATOR);
+            if (autoFlush) flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Same without the line break, for the file writers.
+    void print(Object value) {
+        lock.lock();
+        try {
+            appendValue(value);
+            if (autoFlush) flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void flush() {
+        lock.lock();
+        try {
+            drain();
+            writer.flush();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            drain();
+            writer.close();
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void appendValue(Object value) {
+        if (value instanceof Double) {
+            appendNumber((double)value);
+        } else {
+            append(Interpreter.stringify(value));
+        }
+    }
+
+    // Same text as stringify() gives, but the common integral case is written digit
+    // by digit into the buffer without going through Double.toString() and substring().
+    private void appendNumber(double value) {
+        long integral = (long)value;
+        if (integral != value || Math.abs(value) >= PLAIN_LIMIT) {
+            append(Interpreter.stringify(value));
+            return;
+        }
+
+        reserve(9); // sign and up to 7 digits
+        if (integral == 0) {
+            // Double.toString(-0.0) is "-0.0", so it prints as "-0".
+            if (1 / value < 0) buffer[count++] = '-';
+            buffer[count++] = '0';
+            return;
+        }
+
+        if (integral < 0) {
+            buffer[count++] = '-';
+            integral = -integral;
+        }
+
+        int digits = 1;
+        for (long rest = integral / 10; rest != 0; rest /= 10) digits++;
+
+        int position = count + digits;
+        count = position;
+        while (integral != 0) {
+            buffer[--position] = (char)('0' + integral % 10);
+            integral /= 10;
+        }
+    }
+
+    private void append(String text) {
+        int length = text.length();
+        int offset = 0;
+
+        while (offset < length) {
+            if (count == buffer.length) drain();
+
+            int chunk = Math.min(length - offset, buffer.length - count);
+            text.getChars(offset, offset + chunk, buffer, count);
+            count += chunk;
+            offset += chunk;
+        }
+    }
+
+    private void reserve(int length) {
+        if (buffer.length - count < length) drain();
+    }
+
+    private void drain() {
+        if (count == 0) return;
+
+        try {
+            writer.write(buffer, 0, count);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+        count = 0;
+    }
+}
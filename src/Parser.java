@@ -22,10 +22,20 @@ class Parser {
     private static class ParseError extends RuntimeException {}
 
     private final List<Token> tokens;
+    private final ErrorReporter errors;
     private int current = 0;
 
-    Parser(List<Token> tokens) {
+    // In lazy mode function bodies are only brace-matched, see LazyBody.
+    private final boolean lazy;
+
+    Parser(List<Token> tokens, ErrorReporter errors) {
+        this(tokens, errors, false);
+    }
+
+    Parser(List<Token> tokens, ErrorReporter errors, boolean lazy) {
         this.tokens = tokens;
+        this.errors = errors;
+        this.lazy = lazy;
     }
 
     List<Statement> parse() {
@@ -45,6 +55,7 @@ class Parser {
         try {
             if (match(CLASS)) return classDeclaration();
             if (match(FUN)) return function("function");
+            if (match(IMPORT)) return importDeclaration();
             if (match(VAR)) return varDeclaration();
 
             return statement();
@@ -65,6 +76,7 @@ class Parser {
     }
 
     private Statement forStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Statement initializer;
@@ -107,7 +119,7 @@ class Parser {
             condition = new Expression.Literal(true);
         }
 
-        body = new Statement.While(condition, body);
+        body = new Statement.While(keyword, condition, body);
 
         // make the whole statement into a block that executes the initializer before
         // the loop itself
@@ -182,13 +194,28 @@ class Parser {
         return new Statement.Class(name, superclass, methods);
     }
 
+    // import "path" as name;
+    // "as" isn't a keyword, so it can still be used as a name everywhere else.
+    private Statement importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+
+        Token as = consume(IDENTIFIER, "Expect 'as' after module path.");
+        if (!as.lexeme.equals("as")) throw error(as, "Expect 'as' after module path.");
+
+        Token name = consume(IDENTIFIER, "Expect module name after 'as'.");
+        consume(SEMICOLON, "Expect ';' after import.");
+        return new Statement.Import(keyword, path, name);
+    }
+
     private Statement whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expression condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
         Statement body = statement();
 
-        return new Statement.While(condition, body);
+        return new Statement.While(keyword, condition, body);
     }
 
     private Statement expressionStatement() {
@@ -214,10 +241,39 @@ class Parser {
 
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        if (lazy) return lazyFunction(name, parameters);
+
         List<Statement> body = block();
         return new Statement.Function(name, parameters, body);
     }
 
+    // Skips over the body by matching braces. On the way it notes every name the body
+    // assigns to ("name =" that isn't a property), which is all the resolver needs
+    // to know about the body before it's parsed.
+    private Statement.Function lazyFunction(Token name, List<Token> parameters) {
+        int start = current;
+        List<String> assigned = new ArrayList<>();
+
+        int depth = 1;
+        while (!isAtEnd()) {
+            Token token = advance();
+
+            if (token.type == LEFT_BRACE) {
+                depth++;
+            } else if (token.type == RIGHT_BRACE) {
+                if (--depth == 0) break;
+            } else if (token.type == IDENTIFIER && check(EQUAL) && tokens.get(current - 2).type != DOT) {
+                assigned.add(token.lexeme);
+            }
+        }
+
+        if (depth != 0) throw error(peek(), "Expect '}' after block.");
+
+        Statement.Function function = new Statement.Function(name, parameters, null);
+        function.lazy = new LazyBody(tokens, start, current - 1, assigned);
+        return function;
+    }
+
     private List<Statement> block() {
         List<Statement> statements = new ArrayList<>();
 
@@ -246,6 +302,9 @@ class Parser {
             } else if (expr instanceof Expression.Get) {
                 Expression.Get get = (Expression.Get)expr;
                 return new Expression.Set(get.object, get.name, value);
+            } else if (expr instanceof Expression.Index) {
+                Expression.Index index = (Expression.Index)expr;
+                return new Expression.IndexSet(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -362,6 +421,10 @@ class Parser {
             } else if (match(DOT)) {
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expression.Get(expr, name);
+            } else if (match(LEFT_BRACKET)) {
+                Expression index = expression();
+                Token bracket = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expression.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -398,6 +461,18 @@ class Parser {
             return new Expression.Grouping(expr);
         }
 
+        if (match(LEFT_BRACKET)) {
+            List<Expression> elements = new ArrayList<>();
+            if (!check(RIGHT_BRACKET)) {
+                do {
+                    elements.add(expression());
+                } while (match(COMMA));
+            }
+
+            Token bracket = consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+            return new Expression.Array(bracket, elements);
+        }
+
         throw error(peek(), "Expect expression.");
     }
 
@@ -441,7 +516,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        errors.error(token, message);
         return new ParseError();
     }
 
@@ -454,6 +529,7 @@ class Parser {
             switch (peek().type) {
                 case CLASS:
                 case FUN:
+                case IMPORT:
                 case VAR:
                 case FOR:
                 case IF:
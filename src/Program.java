@@ -0,0 +1,78 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A scanned, parsed and resolved script. Compiling is the expensive part of a run,
+// so embedders compile once and execute the same Program as many times as they
+// want, in as many isolates as they want. Nothing here is mutated after compile()
+// except lazily parsed function bodies, which fill themselves in under a lock, so a
+// Program is safe to share between threads.
+public final class Program {
+    final List<Statement> statements;
+    final Map<Expression, Integer> locals;
+
+    private Program(List<Statement> statements, Map<Expression, Integer> locals) {
+        this.statements = statements;
+        this.locals = locals;
+    }
+
+    // Returns null if there were compile errors. They've been reported to errors.
+    // With lazy set, function bodies are only checked for matching braces here and
+    // errors in them show up when the function is first called.
+    static Program compile(String source, ErrorReporter errors, boolean lazy) {
+        return compile(source, errors, lazy, null);
+    }
+
+    // Imports are relative to directory, or the working directory if it's null.
+    static Program compile(String source, ErrorReporter errors, boolean lazy, Path directory) {
+        List<Statement> statements = parse(source, errors, lazy, directory);
+        if (statements == null) return null;
+
+        return resolve(statements, errors);
+    }
+
+    // The front half of compile(), which ProjectLoader runs for many files in parallel.
+    // Returns null on syntax errors.
+    static List<Statement> parse(String source, ErrorReporter errors, boolean lazy, Path directory) {
+        Scanner scanner = new Scanner(source, errors);
+        List<Token> tokens = scanner.scanTokens();
+
+        Parser parser = new Parser(tokens, errors, lazy);
+        List<Statement> statements = parser.parse();
+
+        // Stop if there was a syntax error
+        if (errors.hadError()) return null;
+
+        // Imports can only be at the top level (the resolver checks), so these are all of them.
+        for (Statement statement : statements) {
+            if (!(statement instanceof Statement.Import)) continue;
+
+            Statement.Import stmt = (Statement.Import)statement;
+            try {
+                Path base = directory == null ? Path.of("") : directory;
+                stmt.file = base.resolve(stmt.path.literal.toString()).toAbsolutePath().normalize();
+            } catch (InvalidPathException error) {
+                errors.error(stmt.path, "Invalid module path.");
+            }
+        }
+
+        return errors.hadError() ? null : statements;
+    }
+
+    // Returns null on resolution errors.
+    static Program resolve(List<Statement> statements, ErrorReporter errors) {
+        Map<Expression, Integer> locals = new HashMap<>();
+        Resolver resolver = new Resolver(locals, errors);
+        resolver.resolve(statements);
+
+        // Stop if there was a resolution error.
+        if (errors.hadError()) return null;
+
+        new TypeInference().infer(statements);
+        return new Program(statements, locals);
+    }
+}
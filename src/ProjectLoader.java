@@ -0,0 +1,171 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Compiles a script and every module it imports, directly or not, before anything
+// runs. Reading, scanning and parsing are independent per file, so they run as
+// fork-join tasks: parsing a file forks a task for each of its imports that
+// nobody has started on yet. Resolving then walks the import graph in dependency
+// order (imports before the files importing them) and stores each Program in the
+// ModuleCache, so the imports at run time find everything already compiled.
+//
+// Each file gets its own ErrorReporter, so errors come back grouped by file.
+final class ProjectLoader {
+    private final ForkJoinPool pool;
+    private final boolean lazy;
+
+    private final ConcurrentHashMap<Path, Unit> units = new ConcurrentHashMap<>();
+
+    // One source file on its way through the loader.
+    private static final class Unit {
+        final Path file;
+        final ErrorReporter errors = new ErrorReporter();
+        BasicFileAttributes attributes;
+        byte[] bytes;
+        List<Statement> statements;
+        Program program;
+        IOException readError;
+
+        // 0 not visited yet, 1 being resolved (an import cycle if we get here again), 2 done
+        int state = 0;
+
+        Unit(Path file) {
+            this.file = file;
+        }
+    }
+
+    static final class Result {
+        final Program program;
+
+        // Only the files that had errors, in the order they were resolved.
+        final Map<Path, List<String>> errors;
+
+        private Result(Program program, Map<Path, List<String>> errors) {
+            this.program = program;
+            this.errors = errors;
+        }
+
+        boolean hadError() {
+            return !errors.isEmpty();
+        }
+    }
+
+    ProjectLoader(ForkJoinPool pool, boolean lazy) {
+        this.pool = pool;
+        this.lazy = lazy;
+    }
+
+    // The program is null if any file had errors.
+    Result load(Path entry) throws IOException {
+        Path file = entry.toAbsolutePath().normalize();
+        Unit root = new Unit(file);
+        units.put(file, root);
+
+        pool.invoke(new ParseTask(root));
+        if (root.readError != null) throw root.readError;
+
+        Map<Path, List<String>> errors = new LinkedHashMap<>();
+        resolve(root, errors);
+
+        return new Result(errors.isEmpty() ? root.program : null, errors);
+    }
+
+    private final class ParseTask extends RecursiveAction {
+        private final Unit unit;
+
+        ParseTask(Unit unit) {
+            this.unit = unit;
+        }
+
+        @Override
+        protected void compute() {
+            parse(unit);
+
+            List<ParseTask> imports = new ArrayList<>();
+            for (Path dependency : imports(unit)) {
+                Unit next = new Unit(dependency);
+                if (units.putIfAbsent(dependency, next) == null) imports.add(new ParseTask(next));
+            }
+
+            invokeAll(imports);
+        }
+    }
+
+    private void parse(Unit unit) {
+        try {
+            unit.attributes = Files.readAttributes(unit.file, BasicFileAttributes.class);
+
+            // Unchanged since an earlier load or import, nothing to do.
+            unit.program = ModuleCache.current(unit.file, unit.attributes);
+            if (unit.program != null) return;
+
+            unit.bytes = Files.readAllBytes(unit.file);
+        } catch (IOException error) {
+            unit.readError = error;
+            return;
+        }
+
+        String source = new String(unit.bytes, Charset.defaultCharset());
+        unit.statements = Program.parse(source, unit.errors, lazy, unit.file.getParent());
+    }
+
+    private static List<Path> imports(Unit unit) {
+        List<Path> files = new ArrayList<>();
+        for (Statement.Import stmt : importStatements(unit)) {
+            files.add(stmt.file);
+        }
+
+        return files;
+    }
+
+    // None if the file didn't parse.
+    private static List<Statement.Import> importStatements(Unit unit) {
+        List<Statement.Import> imports = new ArrayList<>();
+
+        List<Statement> statements = unit.statements;
+        if (statements == null && unit.program != null) statements = unit.program.statements;
+        if (statements == null) return imports;
+
+        for (Statement statement : statements) {
+            if (statement instanceof Statement.Import) imports.add((Statement.Import)statement);
+        }
+
+        return imports;
+    }
+
+    private void resolve(Unit unit, Map<Path, List<String>> errors) {
+        unit.state = 1;
+
+        for (Statement.Import stmt : importStatements(unit)) {
+            Unit dependency = units.get(stmt.file);
+
+            if (dependency.readError != null) {
+                unit.errors.error(stmt.path, "Can't read module '" + stmt.file + "'.");
+            } else if (dependency.state == 1) {
+                unit.errors.error(stmt.path, "Circular import of '" + stmt.file.getFileName() + "'.");
+            } else if (dependency.state == 0) {
+                resolve(dependency, errors);
+            }
+        }
+
+        // Files that came from the ModuleCache have a Program already.
+        if (unit.statements != null && !unit.errors.hadError()) {
+            unit.program = Program.resolve(unit.statements, unit.errors);
+            if (unit.program != null) ModuleCache.store(unit.file, unit.attributes, unit.bytes, unit.program);
+        }
+
+        if (unit.errors.hadError()) errors.put(unit.file, unit.errors.messages());
+        unit.state = 2;
+    }
+}
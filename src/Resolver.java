@@ -1,17 +1,57 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
-    private final Interpreter interpreter;
+    // Side table of scope distances for every resolved local variable use.
+    private final Map<Expression, Integer> locals;
+    private final ErrorReporter errors;
 
     // The boolean determines whether the variable's initializer has been resolved.
     // I guess this is a variable map then?
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
 
+    // Local "fun" declarations of each scope in the stack above. Direct calls to them
+    // with the right number of arguments are collected, and if nothing has assigned to
+    // the name by the time the scope ends, those calls can skip the runtime arity check.
+    // Globals can be rebound by code we never see (another script, the embedder), so
+    // only locals are verified.
+    private final Stack<Map<String, LocalFunction>> functions = new Stack<>();
+
+    private static class LocalFunction {
+        final Statement.Function declaration;
+        final List<Expression.Call> calls = new ArrayList<>();
+        boolean reassigned = false;
+
+        LocalFunction(Statement.Function declaration) {
+            this.declaration = declaration;
+        }
+    }
+
+    // One for each function body being resolved, innermost on top. A body is pure
+    // (and its calls can be memoized, see Memo) if it only uses its own locals, calls
+    // nothing but global functions by name, doesn't print and doesn't touch objects,
+    // arrays or closures. Whether those globals are pure is for Memo to check at
+    // runtime, they can be rebound.
+    private final Stack<Purity> purity = new Stack<>();
+
+    private static class Purity {
+        // Index of the body's scope in scopes. Anything declared from there up is its own.
+        final int scope;
+        final Set<Integer> calls = new LinkedHashSet<>();
+        boolean pure = true;
+
+        Purity(int scope) {
+            this.scope = scope;
+        }
+    }
+
     // These enums are used to track whether resolution is currently happening inside
     // functions or classes. This info is used to determine whether keywords like
     // "return" and "this" are used correctly.
@@ -31,8 +71,24 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
         SUBCLASS
     }
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // Where a lazily parsed function was declared: the scopes around it (as they were
+    // at that point, later declarations aren't visible to it) and what kind of
+    // function it is. Resolving the body later starts from here.
+    static final class Scope {
+        private final List<Map<String, Boolean>> scopes;
+        private final ClassType currentClass;
+        private final FunctionType type;
+
+        private Scope(List<Map<String, Boolean>> scopes, ClassType currentClass, FunctionType type) {
+            this.scopes = scopes;
+            this.currentClass = currentClass;
+            this.type = type;
+        }
+    }
+
+    Resolver(Map<Expression, Integer> locals, ErrorReporter errors) {
+        this.locals = locals;
+        this.errors = errors;
     }
 
     private void resolve(Expression expression) {
@@ -50,35 +106,121 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
     }
 
     private void resolveFunction(Statement.Function function, FunctionType type) {
+        if (function.lazy != null) {
+            List<Map<String, Boolean>> enclosing = new ArrayList<>();
+            for (Map<String, Boolean> scope : scopes) {
+                enclosing.add(new HashMap<>(scope));
+            }
+
+            function.lazy.scope = new Scope(enclosing, currentClass, type);
+
+            // We won't see the body assign to a local function, so assume it does.
+            for (String name : function.lazy.assigned) {
+                LocalFunction local = localFunction(name);
+                if (local != null) local.reassigned = true;
+            }
+
+            return;
+        }
+
+        resolveBody(function, function.body, type);
+    }
+
+    // Resolves the body of a lazily parsed function where it was declared. The
+    // distances go into the side table this resolver was made with.
+    void resolveLazy(Statement.Function declaration, List<Statement> body, Scope scope) {
+        for (Map<String, Boolean> names : scope.scopes) {
+            scopes.push(names);
+            functions.push(new HashMap<String, LocalFunction>());
+        }
+
+        currentClass = scope.currentClass;
+        resolveBody(declaration, body, scope.type);
+    }
+
+    private void resolveBody(Statement.Function function, List<Statement> body, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
 
         beginScope();
+        purity.push(new Purity(scopes.size() - 1));
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
 
-        resolve(function.body);
+        resolve(body);
         endScope();
         currentFunction = enclosingFunction;
+
+        int weight = 1;
+        for (Statement statement : body) weight += weight(statement);
+        function.weight = weight;
+
+        // Methods have "this", they're never pure.
+        Purity result = purity.pop();
+        if (result.pure && type == FunctionType.FUNCTION) {
+            int[] calls = new int[result.calls.size()];
+            int i = 0;
+            for (int slot : result.calls) calls[i++] = slot;
+            function.pureCalls = calls;
+        }
+    }
+
+    // The function being resolved isn't pure.
+    private void impure() {
+        if (!purity.isEmpty()) purity.peek().pure = false;
+    }
+
+    // Using a variable declared in this scope keeps the function pure, anything
+    // else (globals, variables of enclosing functions) doesn't.
+    private void use(int scope) {
+        if (!purity.isEmpty() && scope < purity.peek().scope) impure();
+    }
+
+    // False if the name isn't declared in any scope, i.e. it's a global.
+    private boolean resolveLocal(Expression expr, Token name) {
+        int scope = scopeOf(name.lexeme);
+        if (scope >= 0) {
+            locals.put(expr, scopes.size() - 1 - scope);
+            return true;
+        }
+
+        return false;
     }
 
-    private void resolveLocal(Expression expr, Token name) {
+    // Index of the innermost scope that declares the name, -1 if it's a global.
+    private int scopeOf(String name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scopes.get(i).containsKey(name)) {
+                return i;
             }
         }
+
+        return -1;
+    }
+
+    private LocalFunction localFunction(String name) {
+        int scope = scopeOf(name);
+        if (scope < 0) return null;
+        return functions.get(scope).get(name);
     }
 
     private void beginScope() {
         scopes.push(new HashMap<String, Boolean>());
+        functions.push(new HashMap<String, LocalFunction>());
     }
 
     private void endScope() {
         scopes.pop();
+
+        for (LocalFunction function : functions.pop().values()) {
+            if (function.reassigned) continue;
+
+            for (Expression.Call call : function.calls) {
+                call.arityVerified = true;
+            }
+        }
     }
 
     private void declare(Token name) {
@@ -87,7 +229,7 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
         Map<String, Boolean> scope = scopes.peek();
 
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "The current scope already has a variable with this name.");
+            errors.error(name, "The current scope already has a variable with this name.");
         }
 
         scope.put(name.lexeme, false);
@@ -108,6 +250,8 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
 
     @Override
     public Void visitClassStatement(Statement.Class stmt) {
+        impure();
+
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
@@ -116,7 +260,7 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
 
         if (stmt.superclass != null) {
             if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+                errors.error(stmt.superclass.name, "A class can't inherit from itself.");
             } else {
                 currentClass = ClassType.SUBCLASS;
                 resolve(stmt.superclass);
@@ -156,9 +300,16 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
 
     @Override
     public Void visitFunctionStatement(Statement.Function stmt) {
+        // A closure could leak the function's state.
+        impure();
+
         declare(stmt.name);
         define(stmt.name);
 
+        if (!functions.isEmpty()) {
+            functions.peek().put(stmt.name.lexeme, new LocalFunction(stmt));
+        }
+
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
@@ -171,8 +322,21 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStatement(Statement.Import stmt) {
+        // A module's top level runs once, an import in a function would suggest otherwise.
+        if (!scopes.isEmpty()) {
+            errors.error(stmt.keyword, "Can only import at the top level.");
+        }
+
+        declare(stmt.name);
+        define(stmt.name);
+        return null;
+    }
+
     @Override
     public Void visitPrintStatement(Statement.Print stmt) {
+        impure();
         resolve(stmt.expression);
         return null;
     }
@@ -180,12 +344,12 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
     @Override
     public Void visitReturnStatement(Statement.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            errors.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                errors.error(stmt.keyword, "Can't return a value from an initializer.");
             }
 
             resolve(stmt.value);
@@ -208,13 +372,50 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
     public Void visitWhileStatement(Statement.While stmt) {
         resolve(stmt.condition);
         resolve(stmt.body);
+        stmt.weight = 1 + weight(stmt.body);
+        return null;
+    }
+
+    // Statements one pass over this runs at most, for the Budget. Nested loops charge
+    // their own iterations and function bodies their own calls, so they count as one.
+    private static int weight(Statement statement) {
+        if (statement instanceof Statement.Block) {
+            int weight = 0;
+            for (Statement inner : ((Statement.Block)statement).statements) weight += weight(inner);
+            return weight;
+        }
+
+        if (statement instanceof Statement.If) {
+            Statement.If stmt = (Statement.If)statement;
+            return 1 + weight(stmt.thenBranch) + (stmt.elseBranch == null ? 0 : weight(stmt.elseBranch));
+        }
+
+        return 1;
+    }
+
+    @Override
+    public Void visitArrayExpression(Expression.Array expr) {
+        impure();
+
+        for (Expression element : expr.elements) {
+            resolve(element);
+        }
+
         return null;
     }
 
     @Override
     public Void visitAssignExpression(Expression.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        use(scopeOf(expr.name.lexeme));
+        if (!resolveLocal(expr, expr.name)) {
+            expr.global = GlobalSymbols.symbol(expr.name.lexeme);
+            expr.globalSlot = expr.global.slot;
+        }
+
+        LocalFunction function = localFunction(expr.name.lexeme);
+        if (function != null) function.reassigned = true;
+
         return null;
     }
 
@@ -227,7 +428,24 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
 
     @Override
     public Void visitCallExpression(Expression.Call expr) {
-        resolve(expr.callee);
+        if (expr.callee instanceof Expression.Variable && scopeOf(((Expression.Variable)expr.callee).name.lexeme) < 0) {
+            // Calling a global function by name is the one use of a global a pure
+            // function is allowed. Memo checks what it's bound to.
+            Expression.Variable callee = (Expression.Variable)expr.callee;
+            callee.global = GlobalSymbols.symbol(callee.name.lexeme);
+            callee.globalSlot = callee.global.slot;
+            if (!purity.isEmpty()) purity.peek().calls.add(callee.globalSlot);
+        } else {
+            resolve(expr.callee);
+            impure();
+        }
+
+        if (expr.callee instanceof Expression.Variable) {
+            LocalFunction function = localFunction(((Expression.Variable)expr.callee).name.lexeme);
+            if (function != null && function.declaration.params.size() == expr.arguments.size()) {
+                function.calls.add(expr);
+            }
+        }
 
         for (Expression argument : expr.arguments) {
             resolve(argument);
@@ -239,6 +457,7 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
     // property access
     @Override
     public Void visitGetExpression(Expression.Get expr) {
+        impure();
         resolve(expr.object);
         return null;
     }
@@ -249,6 +468,22 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitIndexExpression(Expression.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpression(Expression.IndexSet expr) {
+        impure();
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpression(Expression.Literal expr) {
         return null;
@@ -263,6 +498,7 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
 
     @Override
     public Void visitSetExpression(Expression.Set expr) {
+        impure();
         resolve(expr.value);
         resolve(expr.object);
         return null;
@@ -270,10 +506,12 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
 
     @Override
     public Void visitSuperExpression(Expression.Super expr) {
+        impure();
+
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with not superclass.");
+            errors.error(expr.keyword, "Can't use 'super' in a class with not superclass.");
         }
 
         resolveLocal(expr, expr.keyword);
@@ -282,8 +520,10 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
 
     @Override
     public Void visitThisExpression(Expression.This expr) {
+        impure();
+
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            errors.error(expr.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
 
@@ -313,10 +553,14 @@ class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
         // Note: I think this would not report an error if you wrapped the variable name
         // in another expression like "(varname)". That might be caught somewhere else though.
         if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            errors.error(expr.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        use(scopeOf(expr.name.lexeme));
+        if (!resolveLocal(expr, expr.name)) {
+            expr.global = GlobalSymbols.symbol(expr.name.lexeme);
+            expr.globalSlot = expr.global.slot;
+        }
         return null;
     }
 }
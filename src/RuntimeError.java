@@ -1,10 +1,34 @@
 package com.craftinginterpreters.lox;
 
+import java.nio.file.Path;
+
 class RuntimeError extends RuntimeException {
     final Token token;
+    // The module the token is in, null for the main script. Set by locate().
+    Path file;
+    private boolean located = false;
 
     RuntimeError(Token token, String message) {
         super(message);
         this.token = token;
     }
+
+    // For errors raised inside native functions, which don't know where they were
+    // called from. The interpreter fills in the call site token before reporting.
+    RuntimeError(String message) {
+        super(message);
+        this.token = null;
+    }
+
+    // Called on the way out of every function body and module top level, with the
+    // file that code came from. The first call is the innermost code, where the
+    // error was raised, so later ones leave it alone.
+    RuntimeError locate(Path file) {
+        if (!located) {
+            located = true;
+            this.file = file;
+        }
+
+        return this;
+    }
 }
@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+// The Scanner's inner loops: runs of blanks, comments, string bodies and identifiers.
+// Each one finds where a run ends, so the scanner jumps there instead of going
+// through advance() and peek() a character at a time.
+//
+// This class is the plain version. With the incubating Vector API available (java
+// --add-modules jdk.incubator.vector, and the classes from src-vector/ compiled next
+// to ours), get() hands out VectorScanAccelerator instead, which checks a whole
+// vector of characters per step. It's looked up by name, so this tree builds and runs
+// without it.
+//
+// Every method returns the index of the first character at or after from that ends
+// the run, or to if the run goes on to the end.
+class ScanAccelerator {
+    private static final ScanAccelerator INSTANCE = load();
+
+    static ScanAccelerator get() {
+        return INSTANCE;
+    }
+
+    private static ScanAccelerator load() {
+        try {
+            Class<?> vector = Class.forName("com.craftinginterpreters.lox.VectorScanAccelerator");
+            return (ScanAccelerator)vector.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError error) {
+            // Not compiled in, or the module isn't there.
+            return new ScanAccelerator();
+        }
+    }
+
+    // Spaces, tabs and carriage returns. Newlines end the run, the scanner counts them.
+    int skipBlanks(char[] source, int from, int to) {
+        int i = from;
+        while (i < to && isBlank(source[i])) i++;
+        return i;
+    }
+
+    // The newline ending a // comment.
+    int lineEnd(char[] source, int from, int to) {
+        int i = from;
+        while (i < to && source[i] != '\n') i++;
+        return i;
+    }
+
+    // The closing quote of a string, or a newline inside it.
+    int stringEnd(char[] source, int from, int to) {
+        int i = from;
+        while (i < to && source[i] != '"' && source[i] != '\n') i++;
+        return i;
+    }
+
+    int identifierEnd(char[] source, int from, int to) {
+        int i = from;
+        while (i < to && isIdentifier(source[i])) i++;
+        return i;
+    }
+
+    static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    static boolean isIdentifier(char c) {
+        return (c >= 'a' && c <= 'z') ||
+               (c >= 'A' && c <= 'Z') ||
+               (c >= '0' && c <= '9') ||
+                c == '_';
+    }
+}
@@ -9,6 +9,10 @@ import static com.craftinginterpreters.lox.TokenType.*;
 
 class Scanner {
     private final String source;
+    // The same characters, for the ScanAccelerator.
+    private final char[] chars;
+    private final ScanAccelerator accelerator = ScanAccelerator.get();
+    private final ErrorReporter errors;
     private final List<Token> tokens = new ArrayList<>();
     private int start = 0;
     private int current = 0;
@@ -25,6 +29,7 @@ class Scanner {
         keywords.put("for",     FOR);
         keywords.put("fun",     FUN);
         keywords.put("if",     IF);
+        keywords.put("import",     IMPORT);
         keywords.put("nil",     NIL);
         keywords.put("or",     OR);
         keywords.put("print",     PRINT);
@@ -36,8 +41,10 @@ class Scanner {
         keywords.put("while",     WHILE);
     }
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter errors) {
         this.source = source;
+        this.chars = source.toCharArray();
+        this.errors = errors;
     }
 
     List<Token> scanTokens() {
@@ -58,6 +65,8 @@ class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -81,7 +90,7 @@ class Scanner {
             case '/':
                 if (match('/')) {
                     // A comment goes until the end of the line.
-                    while (peek() != '\n' && !isAtEnd()) advance();
+                    current = accelerator.lineEnd(chars, current, chars.length);
                 } else {
                     addToken(SLASH);
                 }
@@ -90,7 +99,8 @@ class Scanner {
             case ' ':
             case '\r':
             case '\t':
-                // Ignore whitespace.
+                // Ignore whitespace, the whole run of it.
+                current = accelerator.skipBlanks(chars, current, chars.length);
                 break;
 
             case '\n':
@@ -110,13 +120,13 @@ class Scanner {
                     break;
                 }
 
-                Lox.error(line, "Unexpected character.");
+                errors.error(line, "Unexpected character.");
                 break;
         }
     }
 
     private void identifier() {
-        while (isAlphaNumeric(peek())) advance();
+        current = accelerator.identifierEnd(chars, current, chars.length);
 
         String text = source.substring(start, current);
         TokenType type = keywords.get(text);
@@ -138,13 +148,17 @@ class Scanner {
 
     private void string() {
         // currently processing the opening "
-        while (peek() != '"' && !isAtEnd()) {
-            if (peek() == '\n') line++;
+        for (;;) {
+            current = accelerator.stringEnd(chars, current, chars.length);
+            if (isAtEnd() || peek() == '"') break;
+
+            // stopped at a newline
+            line++;
             advance();
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            errors.error(line, "Unterminated string.");
             return;
         }
 
@@ -154,7 +168,7 @@ class Scanner {
         // trim quotes
         String value = source.substring(start + 1, current - 1);
         // add actual string value to the token's literal field
-        addToken(STRING, value);
+        addToken(STRING, LoxString.intern(value));
     }
 
     private boolean match(char expected) {
@@ -181,10 +195,6 @@ class Scanner {
                 c == '_';
     }
 
-    private boolean isAlphaNumeric(char c) {
-        return isAlpha(c) || isDigit(c);
-    }
-
     private boolean isDigit(char c) {
         return c >= '0' && c <= '9';
     }
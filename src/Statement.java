@@ -9,6 +9,7 @@ abstract class Statement {
         R visitExprStatement(Expr statement);
         R visitFunctionStatement(Function statement);
         R visitIfStatement(If statement);
+        R visitImportStatement(Import statement);
         R visitPrintStatement(Print statement);
         R visitReturnStatement(Return statement);
         R visitVarStatement(Var statement);
@@ -69,6 +70,11 @@ abstract class Statement {
     final Token name;
     final List<Token> params;
     final List<Statement> body;
+
+    LazyBody lazy;
+    volatile Ir.Function ir;
+    volatile int[] pureCalls;
+    int weight;
   }
   static class If extends Statement {
     If(Expression condition, Statement thenBranch, Statement elseBranch) {
@@ -86,6 +92,24 @@ abstract class Statement {
     final Statement thenBranch;
     final Statement elseBranch;
   }
+  static class Import extends Statement {
+    Import(Token keyword, Token path, Token name) {
+      this.keyword = keyword;
+      this.path = path;
+      this.name = name;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+        return visitor.visitImportStatement(this);
+    }
+
+    final Token keyword;
+    final Token path;
+    final Token name;
+
+    java.nio.file.Path file;
+  }
   static class Print extends Statement {
     Print(Expression expression) {
       this.expression = expression;
@@ -127,7 +151,8 @@ abstract class Statement {
     final Expression initializer;
   }
   static class While extends Statement {
-    While(Expression condition, Statement body) {
+    While(Token keyword, Expression condition, Statement body) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
@@ -137,8 +162,11 @@ abstract class Statement {
         return visitor.visitWhileStatement(this);
     }
 
+    final Token keyword;
     final Expression condition;
     final Statement body;
+
+    int weight;
   }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,142 @@
+package com.craftinginterpreters.lox;
+
+// substring(s, start, end), charAt(s, i), charCode(s, i), fromCharCode(code),
+// indexOf(s, part), toNumber(s), str(value), upper(s), lower(s) and trim(s).
+// Indices count UTF-16 code units, like the length() native.
+class StringModule implements NativeModule {
+    // charAt() and fromCharCode() on ASCII hand out these instead of allocating.
+    private static final LoxString[] ASCII = new LoxString[128];
+
+    static {
+        for (char c = 0; c < ASCII.length; c++) {
+            ASCII[c] = LoxString.intern(String.valueOf(c));
+        }
+    }
+
+    @Override
+    public void install(Environment globals) {
+        globals.define("substring", new NativeFunction.Ternary("substring") {
+            @Override
+            public Object call3(Interpreter interpreter, Object s, Object start, Object end) {
+                LoxString string = string(s);
+                int from = integer(start);
+                int to = integer(end);
+                if (from < 0 || to > string.length() || from > to) {
+                    throw new RuntimeError("Substring range " + from + ".." + to +
+                            " out of bounds for length " + string.length() + ".");
+                }
+
+                if (from == 0 && to == string.length()) return string;
+                return LoxString.of(string.toString().substring(from, to));
+            }
+        });
+
+        globals.define("charAt", new NativeFunction.Binary("charAt") {
+            @Override
+            public Object call2(Interpreter interpreter, Object s, Object index) {
+                return character(charAt(this, s, index));
+            }
+        });
+
+        globals.define("charCode", new NativeFunction.Binary("charCode") {
+            @Override
+            public Object call2(Interpreter interpreter, Object s, Object index) {
+                return (double)charAt(this, s, index);
+            }
+        });
+
+        globals.define("fromCharCode", new NativeFunction.Unary("fromCharCode") {
+            @Override
+            public Object call1(Interpreter interpreter, Object code) {
+                int value = integer(code);
+                if (value < 0 || value > Character.MAX_VALUE) {
+                    throw new RuntimeError("Character code " + value + " out of range.");
+                }
+
+                return character((char)value);
+            }
+        });
+
+        globals.define("indexOf", new NativeFunction.Binary("indexOf") {
+            @Override
+            public Object call2(Interpreter interpreter, Object s, Object part) {
+                return (double)string(s).toString().indexOf(string(part).toString());
+            }
+        });
+
+        // nil if the string isn't a number the way Lox writes them: digits with an
+        // optional fraction and an optional leading minus, nothing around them. So
+        // toNumber(str(n)) gives n back for anything str() doesn't print with an exponent.
+        globals.define("toNumber", new NativeFunction.Unary("toNumber") {
+            @Override
+            public Object call1(Interpreter interpreter, Object s) {
+                String text = string(s).toString();
+                return isNumber(text) ? Double.parseDouble(text) : null;
+            }
+        });
+
+        // Same text print would show.
+        globals.define("str", new NativeFunction.Unary("str") {
+            @Override
+            public Object call1(Interpreter interpreter, Object value) {
+                if (value instanceof LoxString) return value;
+                return LoxString.of(Interpreter.stringify(value));
+            }
+        });
+
+        globals.define("upper", new NativeFunction.Unary("upper") {
+            @Override
+            public Object call1(Interpreter interpreter, Object s) {
+                return LoxString.of(string(s).toString().toUpperCase());
+            }
+        });
+
+        globals.define("lower", new NativeFunction.Unary("lower") {
+            @Override
+            public Object call1(Interpreter interpreter, Object s) {
+                return LoxString.of(string(s).toString().toLowerCase());
+            }
+        });
+
+        globals.define("trim", new NativeFunction.Unary("trim") {
+            @Override
+            public Object call1(Interpreter interpreter, Object s) {
+                return LoxString.of(string(s).toString().trim());
+            }
+        });
+    }
+
+    private static char charAt(NativeFunction function, Object s, Object index) {
+        LoxString string = function.string(s);
+        int i = function.integer(index);
+        if (i < 0 || i >= string.length()) {
+            throw new RuntimeError("String index " + i + " out of bounds for length " + string.length() + ".");
+        }
+
+        return string.toString().charAt(i);
+    }
+
+    // Same grammar as Scanner.number(): digits, then optionally "." and more digits.
+    // The scanner leaves a minus to unary negation, here it's part of the number.
+    private static boolean isNumber(String text) {
+        int start = text.startsWith("-") ? 1 : 0;
+        int i = digits(text, start);
+        if (i == start) return false;
+        if (i == text.length()) return true;
+
+        if (text.charAt(i) != '.') return false;
+        int end = digits(text, i + 1);
+        return end > i + 1 && end == text.length();
+    }
+
+    private static int digits(String text, int from) {
+        int i = from;
+        while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9') i++;
+        return i;
+    }
+
+    private static LoxString character(char c) {
+        if (c < ASCII.length) return ASCII[c];
+        return LoxString.of(String.valueOf(c));
+    }
+}
@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+// setTimeout(fn, milliseconds) and clearTimeout(id). fn runs on the event loop once
+// the script's top level is done and the time is up, see EventLoop.
+class TimerModule implements NativeModule {
+    @Override
+    public void install(Environment globals) {
+        globals.define("setTimeout", new NativeFunction.Binary("setTimeout") {
+            @Override
+            public Object call2(Interpreter interpreter, Object function, Object millis) {
+                LoxCallable callback = callback(function, 0);
+                double delay = number(millis);
+                return interpreter.events.setTimeout(EventLoop.handOver(interpreter, callback), delay);
+            }
+        });
+
+        globals.define("clearTimeout", new NativeFunction.Unary("clearTimeout") {
+            @Override
+            public Object call1(Interpreter interpreter, Object id) {
+                return interpreter.events.clearTimeout(number(id));
+            }
+        });
+    }
+}
@@ -0,0 +1,423 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Works out which arithmetic and comparisons only ever see numbers, so the interpreter
+// can run them on primitive doubles without type checks or boxing in between (see
+// Interpreter.evaluateNumber()). Runs after the resolver on programs without errors.
+//
+// It walks the code in execution order and keeps the type each local variable has at
+// that point, merging the branches of an if and going around loops until nothing
+// changes. So "var i = 0; while (i < n) i = i + 1;" knows i is a number everywhere,
+// and a variable that holds nil first and a number later is a number after the
+// assignment.
+//
+// Only locals of the function being analyzed are tracked. Globals can be assigned
+// by any code, and so can a local that a nested function assigns to (calling that
+// function changes it behind our back), so those are never known. Every other call
+// can't touch the variables we track.
+class TypeInference implements Expression.Visitor<TypeInference.Type>, Statement.Visitor<Void> {
+    enum Type {
+        NUMBER,
+        BOOLEAN,
+        // anything else, or we don't know
+        UNKNOWN;
+
+        Type join(Type other) {
+            return this == other ? this : UNKNOWN;
+        }
+    }
+
+    private static final class Local {
+        // Nesting depth of the function that declared it, 0 for the top level.
+        final int function;
+        // A nested function assigns to it.
+        boolean unstable = false;
+
+        Local(int function) {
+            this.function = function;
+        }
+    }
+
+    private final List<Map<String, Local>> scopes = new ArrayList<>();
+    private int function = 0;
+    private int unstableCount = 0;
+
+    // Types of the tracked locals right now, null in code after a return.
+    private Map<Local, Type> state = new HashMap<>();
+
+    // Whether every time we got to a node its operands were numbers. A loop body is
+    // visited again with more general types until they settle, and the last visit
+    // is the only one that counts, which is the same as requiring all of them.
+    private final Map<Expression, Boolean> proofs = new HashMap<>();
+
+    void infer(List<Statement> statements) {
+        visit(statements);
+        annotate();
+    }
+
+    // A lazily parsed body, analyzed when it's compiled. Nothing from the enclosing
+    // function is known in there anyway, so it can start from scratch.
+    void infer(Statement.Function declaration, List<Statement> body) {
+        function(declaration.params, body);
+        annotate();
+    }
+
+    private void annotate() {
+        for (Map.Entry<Expression, Boolean> proof : proofs.entrySet()) {
+            if (!proof.getValue()) continue;
+
+            Expression expr = proof.getKey();
+            if (expr instanceof Expression.Binary) {
+                ((Expression.Binary)expr).numeric = true;
+            } else if (expr instanceof Expression.Unary) {
+                ((Expression.Unary)expr).numeric = true;
+            }
+        }
+    }
+
+    private void prove(Expression expr, boolean numeric) {
+        if (state == null) return;
+        Boolean before = proofs.get(expr);
+        proofs.put(expr, numeric && (before == null || before));
+    }
+
+    private Type visit(Expression expr) {
+        return expr.accept(this);
+    }
+
+    private void visit(List<Statement> statements) {
+        for (Statement statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private void function(List<Token> params, List<Statement> body) {
+        Map<Local, Type> enclosing = state;
+        state = new HashMap<>();
+        function++;
+
+        beginScope();
+        for (Token param : params) declare(param.lexeme);
+        visit(body);
+        endScope();
+
+        function--;
+        state = enclosing;
+    }
+
+    private void lazyFunction(Statement.Function declaration) {
+        // We can't see the body, but it says what it assigns to.
+        for (String name : declaration.lazy.assigned) {
+            Local local = find(name);
+            if (local != null) destabilize(local);
+        }
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<String, Local>());
+    }
+
+    private void endScope() {
+        Map<String, Local> scope = scopes.remove(scopes.size() - 1);
+        if (state != null) state.keySet().removeAll(scope.values());
+    }
+
+    // Top level declarations are globals and aren't tracked, returns null for those.
+    private Local declare(String name) {
+        if (scopes.isEmpty()) return null;
+
+        Local local = new Local(function);
+        scopes.get(scopes.size() - 1).put(name, local);
+        return local;
+    }
+
+    private Local find(String name) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Local local = scopes.get(i).get(name);
+            if (local != null) return local;
+        }
+
+        return null;
+    }
+
+    private void destabilize(Local local) {
+        if (local.unstable) return;
+        local.unstable = true;
+        unstableCount++;
+    }
+
+    private Type typeOf(Local local) {
+        if (local == null || local.unstable || local.function != function || state == null) {
+            return Type.UNKNOWN;
+        }
+
+        Type type = state.get(local);
+        return type == null ? Type.UNKNOWN : type;
+    }
+
+    private void set(Local local, Type type) {
+        if (local == null) return;
+
+        if (local.function != function) {
+            destabilize(local);
+        } else if (state != null) {
+            state.put(local, type);
+        }
+    }
+
+    private static Map<Local, Type> copy(Map<Local, Type> state) {
+        return state == null ? null : new HashMap<>(state);
+    }
+
+    // Where two paths meet. A variable missing on either side isn't known.
+    private static Map<Local, Type> join(Map<Local, Type> a, Map<Local, Type> b) {
+        if (a == null) return copy(b);
+        if (b == null) return copy(a);
+
+        Map<Local, Type> joined = new HashMap<>();
+        for (Map.Entry<Local, Type> entry : a.entrySet()) {
+            Type other = b.get(entry.getKey());
+            if (other != null) joined.put(entry.getKey(), entry.getValue().join(other));
+        }
+
+        return joined;
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block stmt) {
+        beginScope();
+        visit(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStatement(Statement.Class stmt) {
+        Local local = declare(stmt.name.lexeme);
+        set(local, Type.UNKNOWN);
+
+        if (stmt.superclass != null) visit(stmt.superclass);
+
+        for (Statement.Function method : stmt.methods) {
+            if (method.lazy != null) {
+                lazyFunction(method);
+            } else {
+                function(method.params, method.body);
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitExprStatement(Statement.Expr stmt) {
+        visit(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function stmt) {
+        Local local = declare(stmt.name.lexeme);
+        set(local, Type.UNKNOWN);
+
+        if (stmt.lazy != null) {
+            lazyFunction(stmt);
+        } else {
+            function(stmt.params, stmt.body);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If stmt) {
+        visit(stmt.condition);
+
+        Map<Local, Type> before = copy(state);
+        stmt.thenBranch.accept(this);
+        Map<Local, Type> afterThen = state;
+
+        state = before;
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+
+        state = join(afterThen, state);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStatement(Statement.Import stmt) {
+        set(declare(stmt.name.lexeme), Type.UNKNOWN);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print stmt) {
+        visit(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return stmt) {
+        if (stmt.value != null) visit(stmt.value);
+        state = null;
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var stmt) {
+        Type type = stmt.initializer == null ? Type.UNKNOWN : visit(stmt.initializer);
+        set(declare(stmt.name.lexeme), type);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While stmt) {
+        // Go around until the types at the top of the loop stop changing. Each round
+        // can only make a variable less known, so this ends after a few rounds.
+        while (true) {
+            Map<Local, Type> entry = copy(state);
+            int unstable = unstableCount;
+
+            visit(stmt.condition);
+            Map<Local, Type> exit = copy(state);
+
+            stmt.body.accept(this);
+
+            Map<Local, Type> next = join(entry, state);
+            if (Objects.equals(next, entry) && unstable == unstableCount) {
+                state = exit;
+                return null;
+            }
+
+            state = next;
+        }
+    }
+
+    @Override
+    public Type visitArrayExpression(Expression.Array expr) {
+        for (Expression element : expr.elements) visit(element);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitAssignExpression(Expression.Assign expr) {
+        Type type = visit(expr.value);
+        if (expr.globalSlot < 0) set(find(expr.name.lexeme), type);
+        return type;
+    }
+
+    @Override
+    public Type visitBinaryExpression(Expression.Binary expr) {
+        Type left = visit(expr.left);
+        Type right = visit(expr.right);
+        boolean numbers = left == Type.NUMBER && right == Type.NUMBER;
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return Type.BOOLEAN;
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                prove(expr, numbers);
+                return Type.BOOLEAN;
+            case PLUS:
+                // could be strings
+                prove(expr, numbers);
+                return numbers ? Type.NUMBER : Type.UNKNOWN;
+            default:
+                // "-", "*" and "/" either produce a number or throw.
+                prove(expr, numbers);
+                return Type.NUMBER;
+        }
+    }
+
+    @Override
+    public Type visitCallExpression(Expression.Call expr) {
+        visit(expr.callee);
+        for (Expression argument : expr.arguments) visit(argument);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGetExpression(Expression.Get expr) {
+        visit(expr.object);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitGroupingExpression(Expression.Grouping expr) {
+        return visit(expr.expression);
+    }
+
+    @Override
+    public Type visitIndexExpression(Expression.Index expr) {
+        visit(expr.object);
+        visit(expr.index);
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitIndexSetExpression(Expression.IndexSet expr) {
+        visit(expr.object);
+        visit(expr.index);
+        return visit(expr.value);
+    }
+
+    @Override
+    public Type visitLiteralExpression(Expression.Literal expr) {
+        if (expr.value instanceof Double) return Type.NUMBER;
+        if (expr.value instanceof Boolean) return Type.BOOLEAN;
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitLogicalExpression(Expression.Logical expr) {
+        Type left = visit(expr.left);
+
+        // The right side might not run.
+        Map<Local, Type> skipped = copy(state);
+        Type right = visit(expr.right);
+        state = join(skipped, state);
+
+        return left.join(right);
+    }
+
+    @Override
+    public Type visitSetExpression(Expression.Set expr) {
+        visit(expr.object);
+        return visit(expr.value);
+    }
+
+    @Override
+    public Type visitSuperExpression(Expression.Super expr) {
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitThisExpression(Expression.This expr) {
+        return Type.UNKNOWN;
+    }
+
+    @Override
+    public Type visitUnaryExpression(Expression.Unary expr) {
+        Type right = visit(expr.right);
+
+        if (expr.operator.type == TokenType.BANG) return Type.BOOLEAN;
+
+        prove(expr, right == Type.NUMBER);
+        return Type.NUMBER;
+    }
+
+    @Override
+    public Type visitVariableExpression(Expression.Variable expr) {
+        if (expr.globalSlot >= 0) return Type.UNKNOWN;
+        return typeOf(find(expr.name.lexeme));
+    }
+}
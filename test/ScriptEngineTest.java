@@ -0,0 +1,59 @@
+// package com.craftinginterpreters.test;
+
+import com.craftinginterpreters.lox.LoxScriptEngineFactory;
+
+import java.io.StringWriter;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+// Checks values making the trip through the JSR-223 bindings: what a script stores
+// in a global has to be usable by the next script run with the same bindings, and the
+// caller's own values must come back untouched. Exits with 1 if anything's off.
+//
+// Needs the interpreter on the class path:
+//   java -cp out test/ScriptEngineTest.java
+public class ScriptEngineTest {
+    private static int failures = 0;
+
+    public static void main(String[] args) throws ScriptException {
+        ScriptEngine engine = new LoxScriptEngineFactory().getScriptEngine();
+        Bindings bindings = engine.createBindings();
+        bindings.put("given", 5);
+
+        run(engine, bindings, "var numbers = [1, 2, 3]; var names = map(); names[\"a\"] = \"x\"; var text = \"hi\";");
+
+        check("Integer kept", bindings.get("given") instanceof Integer);
+        check("string converted", bindings.get("text") instanceof String);
+        check("natives not written back", !bindings.containsKey("clock"));
+
+        String output = run(engine, bindings,
+                "print numbers[2]; push(numbers, 4); print length(numbers); print names[\"a\"]; names[\"b\"] = given;");
+        check("array and map usable again", output.equals("3\n4\nx\n"));
+
+        output = run(engine, bindings, "print numbers; print names[\"b\"];");
+        check("changes kept", output.equals("[1, 2, 3, 4]\n5\n"));
+
+        if (failures > 0) System.exit(1);
+        System.out.println("all passed");
+    }
+
+    private static String run(ScriptEngine engine, Bindings bindings, String script) throws ScriptException {
+        StringWriter out = new StringWriter();
+        ScriptContext context = new SimpleScriptContext();
+        context.setBindings(bindings, ScriptContext.ENGINE_SCOPE);
+        context.setWriter(out);
+        engine.eval(script, context);
+        return out.toString().replace("\r\n", "\n");
+    }
+
+    private static void check(String name, boolean passed) {
+        if (passed) return;
+
+        System.out.println("FAILED: " + name);
+        failures++;
+    }
+}
@@ -0,0 +1,248 @@
+// package com.craftinginterpreters.tool;
+
+import com.craftinginterpreters.lox.Isolate;
+import com.craftinginterpreters.lox.Program;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Runs the benchmark corpus (bench/*.jlox) in one JVM and writes the results as JSON.
+// Every run compiles and executes the script in a fresh Isolate with its output thrown
+// away. The first runs warm the JIT up and aren't counted. For the rest we keep the
+// median wall time and bytes allocated, and the peak heap across all of them.
+//
+// With --baseline the results are compared against an earlier results file, and a
+// script that got slower or allocates more than the threshold allows is flagged. The
+// exit code is 1 then, so this can gate a build. Peak heap depends on when the GC
+// happened to run, so it's reported but not flagged.
+//
+// Needs the interpreter on the class path:
+//   java -cp out tool/BenchmarkRunner.java [options] bench
+public class BenchmarkRunner {
+    private static final Pattern RESULT = Pattern.compile(
+            "\\{\"name\":\"((?:[^\"\\\\]|\\\\.)*)\",\"wallMillis\":([0-9.]+)," +
+            "\"allocatedBytes\":([0-9]+),\"peakHeapBytes\":([0-9]+)\\}");
+
+    private static int warmup = 5;
+    private static int iterations = 7;
+    private static double threshold = 0.10;
+    private static boolean lazy = false;
+    private static boolean ir = false;
+
+    static class Result {
+        final String name;
+        final double wallMillis;
+        final long allocatedBytes;
+        final long peakHeapBytes;
+
+        Result(String name, double wallMillis, long allocatedBytes, long peakHeapBytes) {
+            this.name = name;
+            this.wallMillis = wallMillis;
+            this.allocatedBytes = allocatedBytes;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path output = null;
+        Path baseline = null;
+        List<Path> inputs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+
+            if (arg.equals("--warmup") && hasValue) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--iterations") && hasValue) {
+                iterations = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (arg.equals("--threshold") && hasValue) {
+                threshold = Double.parseDouble(args[++i]) / 100;
+            } else if (arg.equals("--out") && hasValue) {
+                output = Paths.get(args[++i]);
+            } else if (arg.equals("--baseline") && hasValue) {
+                baseline = Paths.get(args[++i]);
+            } else if (arg.equals("--lazy")) {
+                lazy = true;
+            } else if (arg.equals("--ir")) {
+                ir = true;
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                inputs.add(Paths.get(arg));
+            }
+        }
+
+        if (inputs.isEmpty()) usage();
+
+        // Better to say so now than after running everything.
+        if (baseline != null && !Files.isRegularFile(baseline)) {
+            System.err.println("No baseline at " + baseline + ". Record one on this machine first with --out " + baseline + ".");
+            System.exit(66);
+        }
+
+        List<Path> scripts = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.walk(input)) {
+                    files.filter(file -> file.toString().endsWith(".jlox")).sorted().forEach(scripts::add);
+                }
+            } else {
+                scripts.add(input);
+            }
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Path script : scripts) {
+            Result result = measure(script);
+            System.err.printf("%-40s %10.1f ms %14d bytes allocated %14d bytes peak heap%n",
+                    result.name, result.wallMillis, result.allocatedBytes, result.peakHeapBytes);
+            results.add(result);
+        }
+
+        String json = toJson(results);
+        if (output != null) {
+            Files.write(output, json.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(json);
+        }
+
+        if (baseline != null && compare(results, readResults(baseline)) > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: benchmark_runner [--warmup n] [--iterations n] [--threshold percent]");
+        System.err.println("                        [--out file] [--baseline file] [--lazy] [--ir] <script or dir>...");
+        System.exit(64);
+    }
+
+    private static Result measure(Path script) throws IOException {
+        String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+        String name = script.toString().replace('\\', '/');
+
+        for (int i = 0; i < warmup; i++) run(script, source);
+
+        // Start the peak from what's live now, not from whatever ran before.
+        System.gc();
+        List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heap.add(pool);
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+
+        double[] times = new double[iterations];
+        long[] allocated = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long bytesBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            run(script, source);
+            times[i] = (System.nanoTime() - start) / 1e6;
+            allocated[i] = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        }
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heap) peak += pool.getPeakUsage().getUsed();
+
+        Arrays.sort(times);
+        Arrays.sort(allocated);
+        return new Result(name, times[iterations / 2], allocated[iterations / 2], peak);
+    }
+
+    private static void run(Path script, String source) {
+        StringWriter errors = new StringWriter();
+        Isolate isolate = new Isolate(Writer.nullWriter(), errors);
+        isolate.setLazyParsing(lazy);
+        isolate.setIrEnabled(ir);
+
+        Program program = isolate.compile(source, script.toAbsolutePath());
+        if (!isolate.hadError()) isolate.execute(program);
+
+        if (isolate.hadError() || isolate.hadRuntimeError()) {
+            System.err.println(script + " failed:");
+            System.err.print(errors);
+            System.exit(70);
+        }
+    }
+
+    // Returns the number of regressions.
+    private static int compare(List<Result> results, Map<String, Result> baseline) {
+        int regressions = 0;
+        for (Result result : results) {
+            Result before = baseline.get(result.name);
+            if (before == null) {
+                System.err.println("new: " + result.name);
+                continue;
+            }
+
+            double time = change(before.wallMillis, result.wallMillis);
+            double allocation = change(before.allocatedBytes, result.allocatedBytes);
+            double heap = change(before.peakHeapBytes, result.peakHeapBytes);
+            boolean regressed = time > threshold || allocation > threshold;
+            if (regressed) regressions++;
+
+            System.err.printf("%-10s %-40s time %+6.1f%%  allocation %+6.1f%%  peak heap %+6.1f%%%n",
+                    regressed ? "REGRESSED" : "ok", result.name, time * 100, allocation * 100, heap * 100);
+        }
+
+        System.err.println(regressions + " regression(s) beyond " + Math.round(threshold * 100) + "%.");
+        return regressions;
+    }
+
+    private static double change(double before, double after) {
+        if (before == 0) return after == 0 ? 0 : 1;
+        return (after - before) / before;
+    }
+
+    private static Map<String, Result> readResults(Path file) throws IOException {
+        String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<>();
+
+        Matcher matcher = RESULT.matcher(json);
+        while (matcher.find()) {
+            String name = matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\");
+            results.put(name, new Result(name, Double.parseDouble(matcher.group(2)),
+                    Long.parseLong(matcher.group(3)), Long.parseLong(matcher.group(4))));
+        }
+
+        return results;
+    }
+
+    // One result per line, the same shape readResults() expects.
+    private static String toJson(List<Result> results) {
+        StringBuilder json = new StringBuilder("{\"benchmarks\":[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            String name = result.name.replace("\\", "\\\\").replace("\"", "\\\"");
+            json.append(String.format(Locale.ROOT, "  {\"name\":\"%s\",\"wallMillis\":%.3f,\"allocatedBytes\":%d,\"peakHeapBytes\":%d}",
+                    name, result.wallMillis, result.allocatedBytes, result.peakHeapBytes));
+            json.append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+
+        return json.append("]}\n").toString();
+    }
+}
@@ -17,18 +17,26 @@ public class GenerateAst {
 
         String outDir = args[0];
         defineAst(outDir, "Expression", Arrays.asList(
-            "Assign   : Token name, Expression value",
-            "Binary   : Expression left, Token operator, Expression right",
-            "Call     : Expression callee, Token closingParenthesis, List<Expression> arguments",
+            "Array    : Token bracket, List<Expression> elements", // array literal
+            // globalSlot is the variable's GlobalSymbols slot if it's a global, -1 if it's a local.
+            // global is the symbol it came from, held so the slot stays reserved for the name.
+            "Assign   : Token name, Expression value | int globalSlot = -1, GlobalSymbols.Symbol global",
+            // numeric is set by TypeInference if the operands are always numbers.
+            "Binary   : Expression left, Token operator, Expression right | boolean numeric",
+            // Fields after "|" aren't constructor parameters. Later passes fill them in.
+            // inline is the callee the interpreter evaluates in place, see Inline.
+            "Call     : Expression callee, Token closingParenthesis, List<Expression> arguments | boolean arityVerified, volatile Inline inline",
             "Get      : Expression object, Token name", // property access
             "Grouping : Expression expression",
+            "Index    : Expression object, Token bracket, Expression index", // element access
+            "IndexSet : Expression object, Token bracket, Expression index, Expression value", // element assignment
             "Literal  : Object value",
             "Logical  : Expression left, Token operator, Expression right",
             "Set      : Expression object, Token name, Expression value", // property assignment
             "Super    : Token keyword, Token method",
             "This     : Token keyword",
-            "Unary    : Token operator, Expression right",
-            "Variable : Token name"
+            "Unary    : Token operator, Expression right | boolean numeric",
+            "Variable : Token name | int globalSlot = -1, GlobalSymbols.Symbol global"
         ));
 
         defineAst(outDir, "Statement", Arrays.asList(
@@ -36,12 +44,19 @@ public class GenerateAst {
             // Figure out why the superclass is stored as a Variable
             "Class   : Token name, Expression.Variable superclass, List<Statement.Function> methods",
             "Expr    : Expression expression",
-            "Function: Token name, List<Token> params, List<Statement> body",
+            // body is null if the parser left it for later, lazy has what's needed to parse it then.
+            // ir is the body's optimized IR once it was asked for, see Ir.compile().
+            // pureCalls is set by the resolver if the body is pure: the global slots it calls. See Memo.
+            // weight is what a call is charged against the run's Budget, set by the resolver.
+            "Function: Token name, List<Token> params, List<Statement> body | LazyBody lazy, volatile Ir.Function ir, volatile int[] pureCalls, int weight",
             "If      : Expression condition, Statement thenBranch, Statement elseBranch",
+            // file is the module's absolute path, worked out by Program.compile().
+            "Import  : Token keyword, Token path, Token name | java.nio.file.Path file",
             "Print   : Expression expression",
             "Return  : Token keyword, Expression value",
             "Var     : Token name, Expression initializer",
-            "While   : Expression condition, Statement body"
+            // keyword is "while" or "for". weight is what an iteration is charged, see Budget.
+            "While   : Token keyword, Expression condition, Statement body | int weight"
         ));
     }
 
@@ -63,7 +78,12 @@ public class GenerateAst {
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim(); 
-            defineType(writer, baseName, className, fields);
+            String annotations = null;
+            if (fields.contains("|")) {
+                annotations = fields.split("\\|")[1].trim();
+                fields = fields.split("\\|")[0].trim();
+            }
+            defineType(writer, baseName, className, fields, annotations);
         }
 
         // the base accept() method for the visitor pattern
@@ -85,7 +105,8 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType( PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType( PrintWriter writer, String baseName, String className, String fieldList,
+                                    String annotationList) {
         writer.println("  static class " + className + " extends " + baseName + " {");
 
         // Constructor.
@@ -113,6 +134,14 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        // Mutable fields that are filled in by the resolver and other passes.
+        if (annotationList != null) {
+            writer.println();
+            for (String annotation : annotationList.split(", ")) {
+                writer.println("    " + annotation + ";");
+            }
+        }
+
         writer.println("  }");
     }
 }
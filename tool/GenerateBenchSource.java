@@ -0,0 +1,61 @@
+// package com.craftinginterpreters.tool;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+// Writes a big synthetic Lox program for load-time benchmarks (scanning, parsing,
+// resolving, --lazy). It declares lots of functions and classes that look like real
+// code but only calls a few of them, so most of the cost is in getting the source
+// loaded. The output is deterministic for a given size.
+public class GenerateBenchSource {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: generate_bench_source <out file> [units]");
+            System.exit(64);
+        }
+
+        int units = args.length == 2 ? Integer.parseInt(args[1]) : 5000;
+        PrintWriter writer = new PrintWriter(args[0], "UTF-8");
+
+        writer.println("// Generated by tool/GenerateBenchSource.java, " + units + " units.");
+        writer.println();
+
+        // Every unit is a function and a class using it. Only every 100th unit gets
+        // called at the end.
+        for (int i = 0; i < units; i++) {
+            defineUnit(writer, i);
+        }
+
+        writer.println("var total = 0;");
+        for (int i = 0; i < units; i += 100) {
+            writer.println("total = total + Shape" + i + "(" + i + ").area() + helper" + i + "(" + (i % 7) + ");");
+        }
+        writer.println("print total;");
+        writer.close();
+    }
+
+    private static void defineUnit(PrintWriter writer, int i) {
+        writer.println("fun helper" + i + "(n) {");
+        writer.println("    var sum = 0;");
+        writer.println("    for (var k = 0; k < n; k = k + 1) {");
+        writer.println("        if (k == " + (i % 5) + ") sum = sum + k * 2;");
+        writer.println("        else sum = sum + k;");
+        writer.println("    }");
+        writer.println("    var label = \"helper" + i + "\";");
+        writer.println("    if (label == \"unused\") return -1;");
+        writer.println("    return sum;");
+        writer.println("}");
+        writer.println();
+        writer.println("class Shape" + i + " {");
+        writer.println("    init(size) {");
+        writer.println("        this.size = size;");
+        writer.println("        this.scale = " + (i % 3 + 1) + ";");
+        writer.println("    }");
+        writer.println();
+        writer.println("    area() {");
+        writer.println("        return this.size * this.scale + helper" + i + "(3);");
+        writer.println("    }");
+        writer.println("}");
+        writer.println();
+    }
+}